@@ -0,0 +1,190 @@
+package com.downloader.benchmark;
+
+import com.downloader.DownloadManagerApplication;
+import com.downloader.dto.DownloadRequest;
+import com.downloader.model.Download;
+import com.downloader.service.DownloadService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end cost of one download through {@link DownloadService}: probe, scheduling, part
+ * workers, segment writes and progress persistence, against a {@link StandInServer} on
+ * loopback. The application runs without its web server on an in-memory database, with the
+ * download cache and startup recovery off so every invocation really fetches the file.
+ * <p>
+ * The score is downloads per second. Auxiliary counters add {@code bytes} (end-to-end
+ * throughput in bytes per second), {@code progressFlushes} and {@code repositoryWrites} (per
+ * second; divide by the score for the count per download). Run with {@code -prof gc} for the
+ * allocation rate. A {@code segments} value of 0 lets the SegmentTuner pick the count.
+ * Other application properties can be overridden with {@code -jvmArgsAppend -Dname=value},
+ * e.g. {@code -Ddownload.checksum.enabled=true}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class SegmentDownloadBenchmark {
+
+    @Param({"1048576", "67108864", "1073741824"})
+    public long fileSize;
+
+    @Param({"1", "4", "16"})
+    public int segments;
+
+    @Param({"65536", "1048576"})
+    public int chunkSize;
+
+    @Param({"stream", "nio", "mmap"})
+    public String engine;
+
+    // Stand-in origin behavior
+    @Param({"0"})
+    public long latencyMs;
+
+    @Param({"0"})
+    public long jitterMs;
+
+    @Param({"0"})
+    public long bytesPerSecond;
+
+    @Param({"0"})
+    public double errorRate;
+
+    @Param({"0"})
+    public double dropRate;
+
+    private StandInServer server;
+    private ConfigurableApplicationContext context;
+    private DownloadService downloadService;
+    private MeterRegistry meterRegistry;
+    private Path storage;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        server = new StandInServer(new StandInServer.Config(fileSize, latencyMs, jitterMs, bytesPerSecond, errorRate, dropRate));
+        url = server.url("file.bin");
+        storage = Files.createTempDirectory("download-benchmark");
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("spring.datasource.url", "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+        properties.put("spring.jpa.hibernate.ddl-auto", "create");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("logging.level.com.downloader", "WARN");
+        properties.put("download.storage.location", storage.toString());
+        properties.put("download.progress.log.path", storage.resolve("progress.log").toString());
+        properties.put("download.cache.enabled", "false");
+        properties.put("download.checksum.enabled", "false");
+        properties.put("download.recovery.enabled", "false");
+        properties.put("download.chunk.size", String.valueOf(chunkSize));
+        properties.put("download.write.engine", engine);
+        context = new SpringApplicationBuilder(DownloadManagerApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(properties)
+                .run();
+        downloadService = context.getBean(DownloadService.class);
+        meterRegistry = context.getBean(MeterRegistry.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        context.close();
+        server.close();
+        try (Stream<Path> files = Files.walk(storage)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Download download(Counters counters) throws Exception {
+        long flushes = progressFlushes();
+        long writes = repositoryWrites();
+
+        DownloadRequest request = new DownloadRequest(url, "file.bin", segments > 0 ? segments : null);
+        Download download = downloadService.startDownload(request);
+        Download finished = awaitFinished(download.getId());
+        if (finished.getDownloadStatus() != Download.DownloadStatus.COMPLETED) {
+            throw new IllegalStateException("Download " + finished.getId() + " ended " + finished.getDownloadStatus()
+                    + ": " + finished.getErrorMessage());
+        }
+        Files.deleteIfExists(Paths.get(finished.getFilePath()));
+
+        counters.bytes += finished.getTotalSize();
+        counters.progressFlushes += progressFlushes() - flushes;
+        counters.repositoryWrites += repositoryWrites() - writes;
+        return finished;
+    }
+
+    private Download awaitFinished(Long id) throws InterruptedException {
+        while (true) {
+            Download download = downloadService.getDownload(id);
+            Download.DownloadStatus status = download.getDownloadStatus();
+            if (status == Download.DownloadStatus.COMPLETED || status == Download.DownloadStatus.FAILED
+                    || status == Download.DownloadStatus.PAUSED) {
+                return download;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private long progressFlushes() {
+        Timer timer = meterRegistry.find("download.progress.flush").timer();
+        return timer != null ? timer.count() : 0;
+    }
+
+    // Saves, deletes and modifying queries issued through the Spring Data repositories
+    private long repositoryWrites() {
+        return meterRegistry.find("spring.data.repository.invocations").timers().stream()
+                .filter(timer -> {
+                    String method = timer.getId().getTag("method");
+                    return method != null && (method.startsWith("save") || method.startsWith("delete") || method.startsWith("update"));
+                })
+                .mapToLong(Timer::count)
+                .sum();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long bytes;
+        public long progressFlushes;
+        public long repositoryWrites;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            progressFlushes = 0;
+            repositoryWrites = 0;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.downloader.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local origin for benchmarks. Serves a file of any size with {@code Range} support from a
+ * repeating 1MB block, so even a 4GB file costs no memory or disk on the server side. Each
+ * response can be delayed, paced and broken on purpose:
+ * <ul>
+ *   <li>{@code latencyMs} plus up to {@code jitterMs} before the response headers</li>
+ *   <li>{@code bytesPerSecond} per connection, 0 for as fast as loopback goes</li>
+ *   <li>{@code errorRate} of range requests answered with 503</li>
+ *   <li>{@code dropRate} of bodies cut off at a random offset</li>
+ * </ul>
+ */
+public final class StandInServer implements AutoCloseable {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int WRITE_SIZE = 64 * 1024;
+
+    private final Config config;
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "stand-in-origin");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedFaults = new AtomicLong();
+
+    public record Config(long size, long latencyMs, long jitterMs, long bytesPerSecond, double errorRate, double dropRate) {
+    }
+
+    public StandInServer(Config config) throws IOException {
+        this.config = config;
+        new Random(42).nextBytes(block);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String url(String name) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + name;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getInjectedFaults() {
+        return injectedFaults.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (exchange) {
+            delay();
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (range != null && random.nextDouble() < config.errorRate()) {
+                injectedFaults.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "0");
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            long start = 0;
+            long end = config.size() - 1;
+            int status = 200;
+            if (range != null) {
+                Matcher matcher = RANGE.matcher(range);
+                if (matcher.matches()) {
+                    start = Long.parseLong(matcher.group(1));
+                    if (!matcher.group(2).isEmpty()) {
+                        end = Math.min(end, Long.parseLong(matcher.group(2)));
+                    }
+                    status = 206;
+                    exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + config.size());
+                }
+            }
+            long length = end - start + 1;
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().set("ETag", "\"stand-in-" + config.size() + "\"");
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, length);
+            long dropAt = random.nextDouble() < config.dropRate() ? start + random.nextLong(length) : Long.MAX_VALUE;
+            writeBody(exchange.getResponseBody(), start, end, dropAt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Client went away, typically a worker that was stopped or handed its part back
+        }
+    }
+
+    private void writeBody(OutputStream out, long start, long end, long dropAt) throws IOException, InterruptedException {
+        long begin = System.nanoTime();
+        long position = start;
+        while (position <= end) {
+            if (position >= dropAt) {
+                injectedFaults.incrementAndGet();
+                throw new IOException("Injected connection drop");
+            }
+            int offset = (int) (position % BLOCK_SIZE);
+            int length = (int) Math.min(Math.min(WRITE_SIZE, BLOCK_SIZE - offset), end - position + 1);
+            out.write(block, offset, length);
+            position += length;
+            if (config.bytesPerSecond() > 0) {
+                // Paced against the start of the response so sleeps don't add up to drift
+                long dueNanos = (position - start) * 1_000_000_000L / config.bytesPerSecond();
+                long aheadNanos = dueNanos - (System.nanoTime() - begin);
+                if (aheadNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(aheadNanos);
+                }
+            }
+        }
+    }
+
+    private void delay() throws InterruptedException {
+        long millis = config.latencyMs();
+        if (config.jitterMs() > 0) {
+            millis += ThreadLocalRandom.current().nextLong(config.jitterMs() + 1);
+        }
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.downloader.controller;
+
+import com.downloader.dto.BandwidthStats;
+import com.downloader.service.BandwidthLimiter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/bandwidth")
+@RequiredArgsConstructor
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:3004"})
+public class BandwidthController {
+
+    private final BandwidthLimiter bandwidthLimiter;
+
+    @GetMapping("/stats")
+    public ResponseEntity<BandwidthStats> getStats() {
+        return ResponseEntity.ok(bandwidthLimiter.getStats());
+    }
+
+    @PutMapping
+    public ResponseEntity<BandwidthStats> setLimits(
+        @RequestParam(required = false) Long maxBytesPerSecond,
+        @RequestParam(required = false) Long maxBytesPerSecondPerHost
+    ) {
+        bandwidthLimiter.setLimits(
+                maxBytesPerSecond != null ? Math.max(0, maxBytesPerSecond) : null,
+                maxBytesPerSecondPerHost != null ? Math.max(0, maxBytesPerSecondPerHost) : null);
+        return ResponseEntity.ok(bandwidthLimiter.getStats());
+    }
+}
@@ -0,0 +1,43 @@
+package com.downloader.controller;
+
+import com.downloader.dto.BatchProgress;
+import com.downloader.dto.BatchSubmission;
+import com.downloader.service.DownloadBatchService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/api/batches")
+@RequiredArgsConstructor
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:3004"})
+public class BatchController {
+
+    private final DownloadBatchService downloadBatchService;
+
+    /**
+     * Submits a manifest sent as the request body: JSON lines with the fields of a download
+     * request, or plain lines of a URL with an optional file name, checksum and priority.
+     * Returns once the downloads are stored, before any of them has been probed. Form encoded
+     * bodies are refused, the servlet container would parse them as parameters.
+     */
+    @PostMapping(consumes = {MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_NDJSON_VALUE, "application/jsonl",
+            MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<BatchSubmission> submitBatch(@RequestParam(required = false) String name,
+                                                       InputStream manifest) throws IOException {
+        BatchSubmission submission = downloadBatchService.submit(name, manifest);
+        return submission.getBatchId() != null
+                ? ResponseEntity.ok(submission)
+                : ResponseEntity.badRequest().body(submission);
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<BatchProgress> getBatch(@PathVariable Long id) {
+        BatchProgress progress = downloadBatchService.getProgress(id);
+        return progress != null ? ResponseEntity.ok(progress) : ResponseEntity.notFound().build();
+    }
+}
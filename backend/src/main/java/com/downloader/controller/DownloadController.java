@@ -1,19 +1,27 @@
 package com.downloader.controller;
 
+import com.downloader.dto.DownloadPage;
+import com.downloader.dto.DownloadQuery;
+import com.downloader.dto.DownloadRequest;
 import com.downloader.model.Download;
+import com.downloader.model.DownloadPart;
+import com.downloader.service.DownloadFileService;
 import com.downloader.service.DownloadService;
+import com.downloader.service.ProgressBroadcaster;
+import com.downloader.service.ServedFile;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @RestController
@@ -23,15 +31,32 @@ import java.util.List;
 public class DownloadController {
 
     private final DownloadService downloadService;
+    private final ProgressBroadcaster progressBroadcaster;
+    private final DownloadFileService downloadFileService;
+    private final FileResponseWriter fileResponseWriter;
 
     @PostMapping
     public ResponseEntity<Download> startDownload(
         @RequestParam String url,
         @RequestParam(required = false) String fileName,
-        @RequestParam(required = false) Integer threadCount
+        @RequestParam(required = false) Integer threadCount,
+        @RequestParam(required = false) String engine,
+        @RequestParam(required = false) Integer priority,
+        @RequestParam(required = false) Long maxBytesPerSecond,
+        @RequestParam(required = false) String checksum,
+        // Repeated once per mirror URL of the same file
+        @RequestParam(required = false) List<String> mirror,
+        @RequestParam(required = false) Boolean extract
     ) {
         try {
-            Download download = downloadService.startDownload(url, fileName, threadCount);
+            DownloadRequest request = new DownloadRequest(url, fileName, threadCount);
+            request.setEngine(engine);
+            request.setPriority(priority);
+            request.setMaxBytesPerSecond(maxBytesPerSecond);
+            request.setChecksum(checksum);
+            request.setMirrors(mirror);
+            request.setExtract(extract);
+            Download download = downloadService.startDownload(request);
             return ResponseEntity.ok(download);
         } catch (IOException e) {
             return ResponseEntity.badRequest().build();
@@ -43,34 +68,76 @@ public class DownloadController {
         return ResponseEntity.ok(downloadService.getAllDownloads());
     }
 
+    @GetMapping("/page")
+    public ResponseEntity<DownloadPage> listDownloads(
+        @RequestParam(required = false) List<Download.DownloadStatus> status,
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+        @RequestParam(required = false) String host,
+        @RequestParam(required = false) Long batchId,
+        @RequestParam(defaultValue = "id") String sort,
+        @RequestParam(defaultValue = "desc") String direction,
+        @RequestParam(required = false) String cursor,
+        @RequestParam(defaultValue = "50") int limit,
+        @RequestParam(defaultValue = "false") boolean includeParts
+    ) {
+        DownloadQuery query = new DownloadQuery();
+        query.setStatuses(status);
+        query.setFrom(from);
+        query.setTo(to);
+        query.setHost(host);
+        query.setBatchId(batchId);
+        query.setSort(sort);
+        query.setAscending("asc".equalsIgnoreCase(direction));
+        query.setCursor(cursor);
+        query.setLimit(limit);
+        query.setIncludeParts(includeParts);
+        try {
+            return ResponseEntity.ok(downloadService.listDownloads(query));
+        } catch (InvalidDataAccessApiUsageException e) {
+            // Unknown sort field or malformed cursor
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamProgress(@RequestParam(required = false) Long intervalMs) {
+        return progressBroadcaster.subscribe(intervalMs);
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<Download> getDownload(@PathVariable Long id) {
         Download download = downloadService.getDownload(id);
         return download != null ? ResponseEntity.ok(download) : ResponseEntity.notFound().build();
     }
 
-    @GetMapping("/{id}/file")
-    public ResponseEntity<Resource> downloadFile(@PathVariable Long id) {
-        try {
-            Download download = downloadService.getDownload(id);
-            if (download == null || download.getDownloadStatus() != Download.DownloadStatus.COMPLETED) {
-                return ResponseEntity.notFound().build();
-            }
-
-            Resource resource = downloadService.getDownloadedFile(id);
-            Path path = Paths.get(download.getFilePath());
-            String contentType = Files.probeContentType(path);
-            if (contentType == null) {
-                contentType = MimeTypeUtils.APPLICATION_OCTET_STREAM_VALUE;
-            }
+    @GetMapping("/{id}/parts")
+    public ResponseEntity<List<DownloadPart>> getDownloadParts(@PathVariable Long id) {
+        List<DownloadPart> parts = downloadService.getDownloadParts(id);
+        return parts != null ? ResponseEntity.ok(parts) : ResponseEntity.notFound().build();
+    }
 
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + download.getFileName() + "\"")
-                    .body(resource);
-        } catch (IOException e) {
-            return ResponseEntity.internalServerError().build();
+    /**
+     * Serves the downloaded file with Range, If-Range and conditional GET support. A download
+     * that is still running is served up to the contiguous prefix written so far.
+     */
+    @GetMapping("/{id}/file")
+    public void downloadFile(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ServedFile file = downloadFileService.resolve(id);
+        if (file == null || !Files.isRegularFile(file.path())) {
+            // The file may have been removed since its metadata was cached
+            downloadFileService.evict(id);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+        fileResponseWriter.write(file, request, response);
+    }
+
+    @PutMapping("/{id}/bandwidth")
+    public ResponseEntity<Void> setBandwidthLimit(@PathVariable Long id, @RequestParam long maxBytesPerSecond) {
+        return downloadService.setBandwidthLimit(id, Math.max(0, maxBytesPerSecond))
+                ? ResponseEntity.ok().build()
+                : ResponseEntity.notFound().build();
     }
 
     @PostMapping("/{id}/pause")
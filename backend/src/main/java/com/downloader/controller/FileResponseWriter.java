@@ -0,0 +1,188 @@
+package com.downloader.controller;
+
+import com.downloader.service.ServedFile;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a {@link ServedFile} with conditional requests, single and multipart byte ranges and
+ * {@code If-Range}. Whole files and single ranges go out through Tomcat's sendfile when the
+ * connector supports it, so the bytes never pass through the heap and the request thread is
+ * free again while the kernel copies them.
+ */
+@Component
+class FileResponseWriter {
+
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    void write(ServedFile file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(file.fileName(), StandardCharsets.UTF_8).build().toString());
+        if (file.complete()) {
+            // Sets ETag and Last-Modified, answers a matching conditional GET with 304 and a failed If-Match with 412
+            if (new ServletWebRequest(request, response).checkNotModified(file.etag(), file.lastModified())) {
+                return;
+            }
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        } else {
+            // Still downloading, the served prefix grows with every request
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+        }
+
+        List<HttpRange> ranges = requestedRanges(file, request);
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(file.contentType());
+            send(file, 0, file.length(), request, response);
+            return;
+        }
+
+        List<long[]> regions = new ArrayList<>();
+        for (HttpRange range : ranges) {
+            try {
+                long start = range.getRangeStart(file.length());
+                long end = range.getRangeEnd(file.length());
+                if (start <= end) {
+                    regions.add(new long[]{start, end});
+                }
+            } catch (IllegalArgumentException e) {
+                // Starts beyond the end, other ranges of the request may still be satisfiable
+            }
+        }
+        if (regions.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + file.length());
+            response.setContentLength(0);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (regions.size() == 1) {
+            long[] region = regions.get(0);
+            response.setContentType(file.contentType());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(file, region));
+            send(file, region[0], region[1] - region[0] + 1, request, response);
+            return;
+        }
+        sendMultipart(file, regions, request, response);
+    }
+
+    // Range header, ignored when invalid or when If-Range shows the client holds another version
+    private static List<HttpRange> requestedRanges(ServedFile file, HttpServletRequest request) {
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range == null) {
+            return List.of();
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRangeMatches(file, ifRange, request)) {
+            return List.of();
+        }
+        try {
+            return HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
+    }
+
+    private static boolean ifRangeMatches(ServedFile file, String ifRange, HttpServletRequest request) {
+        if (!file.complete()) {
+            return false;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(file.etag());
+        }
+        if (ifRange.startsWith("W/")) {
+            return false; // Weak validators can't guarantee the bytes line up
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) == file.lastModified();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static String contentRange(ServedFile file, long[] region) {
+        return "bytes " + region[0] + "-" + region[1] + "/" + (file.complete() ? String.valueOf(file.length()) : "*");
+    }
+
+    private static void send(ServedFile file, long start, long count, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod()) || count == 0) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, file.path().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.path(), StandardOpenOption.READ)) {
+            transfer(channel, start, count, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    private static void sendMultipart(ServedFile file, List<long[]> regions, HttpServletRequest request,
+                                      HttpServletResponse response) throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> headers = new ArrayList<>();
+        long length = 0;
+        for (long[] region : regions) {
+            byte[] header = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + file.contentType() + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(file, region) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            headers.add(header);
+            length += header.length + region[1] - region[0] + 1;
+        }
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        length += end.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(length);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(file.path(), StandardOpenOption.READ)) {
+            for (int i = 0; i < regions.size(); i++) {
+                long[] region = regions.get(i);
+                out.write(headers.get(i));
+                transfer(channel, region[0], region[1] - region[0] + 1, target);
+            }
+        }
+        out.write(end);
+    }
+
+    private static void transfer(FileChannel channel, long position, long count, WritableByteChannel target) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                throw new IOException("File ends at byte " + position + ", expected " + end);
+            }
+            position += transferred;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.downloader.controller;
+
+import com.downloader.dto.SchedulerStats;
+import com.downloader.model.HostProfile;
+import com.downloader.repository.HostProfileRepository;
+import com.downloader.service.DownloadScheduler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/scheduler")
+@RequiredArgsConstructor
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:3004"})
+public class SchedulerController {
+
+    private final DownloadScheduler downloadScheduler;
+    private final HostProfileRepository hostProfileRepository;
+
+    @GetMapping("/stats")
+    public ResponseEntity<SchedulerStats> getStats() {
+        return ResponseEntity.ok(downloadScheduler.getStats());
+    }
+
+    // Segment counts adaptive downloads learned per host
+    @GetMapping("/hosts")
+    public ResponseEntity<List<HostProfile>> getHostProfiles() {
+        return ResponseEntity.ok(hostProfileRepository.findAll());
+    }
+}
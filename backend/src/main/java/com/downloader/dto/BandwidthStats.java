@@ -0,0 +1,28 @@
+package com.downloader.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * Limits and limiter queueing time per level. A level with a growing {@code waitedMs} is the
+ * one holding downloads back; if every level stays at 0 the downloads are network bound.
+ */
+@Data
+@AllArgsConstructor
+public class BandwidthStats {
+    private BucketStats global;
+    private long maxBytesPerSecondPerHost;
+    private Map<String, BucketStats> hosts;
+    private Map<Long, BucketStats> downloads;
+
+    @Data
+    @AllArgsConstructor
+    public static class BucketStats {
+        private long maxBytesPerSecond;
+        private long bytesAcquired;
+        private long waitedMs;
+        private long throttledAcquisitions;
+    }
+}
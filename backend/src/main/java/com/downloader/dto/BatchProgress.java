@@ -0,0 +1,28 @@
+package com.downloader.dto;
+
+import com.downloader.model.Download;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Aggregate state of the downloads of one batch. Byte totals only cover downloads whose size
+ * is known, i.e. that have been probed.
+ */
+@Data
+@NoArgsConstructor
+public class BatchProgress {
+    private Long id;
+    private String name;
+    private LocalDateTime createdAt;
+    private int entries;
+    private Map<Download.DownloadStatus, Long> statusCounts = new EnumMap<>(Download.DownloadStatus.class);
+    // PENDING downloads still waiting for their probe
+    private long awaitingProbe;
+    private long totalSize;
+    private long downloadedSize;
+    private int progress;
+}
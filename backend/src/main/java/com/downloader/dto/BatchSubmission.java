@@ -0,0 +1,22 @@
+package com.downloader.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Outcome of ingesting a manifest. Rejected lines are reported by line number and skipped,
+ * the accepted ones are probed and queued in the background.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchSubmission {
+    private Long batchId;
+    private int accepted;
+    private int rejected;
+    // The first rejected lines, "line <n>: <reason>"
+    private List<String> errors;
+}
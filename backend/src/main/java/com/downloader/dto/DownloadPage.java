@@ -0,0 +1,19 @@
+package com.downloader.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of a download listing. Pass {@code nextCursor} back as {@code cursor} to get the
+ * next page, it is {@code null} on the last page.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DownloadPage {
+    private List<DownloadSummary> items;
+    private String nextCursor;
+}
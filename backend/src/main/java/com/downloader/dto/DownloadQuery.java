@@ -0,0 +1,26 @@
+package com.downloader.dto;
+
+import com.downloader.model.Download;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Filters, sort order and keyset cursor of a download listing page.
+ */
+@Data
+@NoArgsConstructor
+public class DownloadQuery {
+    private List<Download.DownloadStatus> statuses;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private String host;
+    private Long batchId;
+    private String sort = "id";
+    private boolean ascending;
+    private String cursor;
+    private int limit = 50;
+    private boolean includeParts;
+}
@@ -0,0 +1,29 @@
+package com.downloader.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+public class DownloadRequest {
+    private String url;
+    private String fileName;
+    private Integer threadCount;
+    private String engine;
+    private Integer priority;
+    private Long maxBytesPerSecond;
+    // sha256:<hex>, md5:<hex> or a bare hex digest
+    private String checksum;
+    // Other URLs of the same file, segments are spread over all of them
+    private List<String> mirrors;
+    // Extract a .zip, .tar, .tar.gz/.tgz or .gz file while it downloads
+    private Boolean extract;
+
+    public DownloadRequest(String url, String fileName, Integer threadCount) {
+        this.url = url;
+        this.fileName = fileName;
+        this.threadCount = threadCount;
+    }
+}
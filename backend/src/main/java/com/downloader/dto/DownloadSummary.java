@@ -0,0 +1,35 @@
+package com.downloader.dto;
+
+import com.downloader.model.Download;
+import com.downloader.model.DownloadPart;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Listing view of a {@link Download} without the URL and parts columns. {@code parts} is only
+ * filled when explicitly requested; the outcome messages are left out while they are empty.
+ */
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DownloadSummary {
+    private Long id;
+    private String fileName;
+    private String host;
+    private Download.DownloadStatus downloadStatus;
+    private long totalSize;
+    private long downloadedSize;
+    private int progress;
+    private int threadCount;
+    private int priority;
+    private LocalDateTime startTime;
+    private LocalDateTime completionTime;
+    private String errorMessage;
+    private String extractedPath;
+    private String extractError;
+    private List<DownloadPart> parts;
+}
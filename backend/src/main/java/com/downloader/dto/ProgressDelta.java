@@ -0,0 +1,55 @@
+package com.downloader.dto;
+
+import com.downloader.model.Download;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Compact progress update pushed to dashboards over the progress stream. Values are absolute,
+ * so a newer delta for the same download simply replaces an older one. Status changes also
+ * carry the name and outcome of the download, so a dashboard can list one it didn't know.
+ */
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProgressDelta {
+    private Long id;
+    private Download.DownloadStatus status;
+    private long totalSize;
+    private long downloadedSize;
+    private int progress;
+    private long bytesPerSecond;
+    private List<PartDelta> parts;
+    // Only on status changes
+    private String fileName;
+    private String host;
+    private String errorMessage;
+    private Boolean extract;
+    private String extractedPath;
+    private String extractError;
+
+    public ProgressDelta(Long id, Download.DownloadStatus status, long totalSize, long downloadedSize, int progress,
+                         long bytesPerSecond, List<PartDelta> parts) {
+        this.id = id;
+        this.status = status;
+        this.totalSize = totalSize;
+        this.downloadedSize = downloadedSize;
+        this.progress = progress;
+        this.bytesPerSecond = bytesPerSecond;
+        this.parts = parts;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class PartDelta {
+        private Long id;
+        private long startByte;
+        private long endByte;
+        private long downloadedBytes;
+    }
+}
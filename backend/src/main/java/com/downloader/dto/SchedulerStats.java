@@ -0,0 +1,20 @@
+package com.downloader.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+public class SchedulerStats {
+    private int queueDepth;
+    private int activeDownloads;
+    private int activeConnections;
+    private int maxConnections;
+    private int maxConnectionsPerHost;
+    private Map<String, Integer> activeConnectionsPerHost;
+    private long rejectedSubmissions;
+    // Batch entries waiting for or in their probe, not yet in the queue
+    private int pendingProbes;
+}
@@ -0,0 +1,35 @@
+package com.downloader.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A URL whose content is held in the download cache. Entries with the same checksum share
+ * one blob on disk.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@Table(indexes = {
+        @Index(name = "idx_cache_entry_url", columnList = "url"),
+        @Index(name = "idx_cache_entry_checksum", columnList = "checksum")
+})
+public class CacheEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(length = 2048, columnDefinition = "VARCHAR(2048)")
+    private String url;
+    private String etag;
+    private String lastModified;
+    private String checksumAlgorithm;
+    private String checksum;
+    private long size;
+    private LocalDateTime validatedAt;
+    private LocalDateTime lastAccessed;
+    private long hits;
+}
@@ -13,6 +13,13 @@ import java.util.List;
 @Data
 @NoArgsConstructor
 @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
+@Table(indexes = {
+        @Index(name = "idx_download_status_id", columnList = "download_status, id"),
+        @Index(name = "idx_download_start_time", columnList = "start_time, id"),
+        @Index(name = "idx_download_total_size", columnList = "total_size, id"),
+        @Index(name = "idx_download_host", columnList = "host, id"),
+        @Index(name = "idx_download_batch", columnList = "batch_id, id")
+})
 public class Download {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -20,18 +27,62 @@ public class Download {
 
     @Column(length = 2048, columnDefinition = "VARCHAR(2048)")
     private String url;
+    // Other URLs serving the same file, validated against the probe of url
+    @Convert(converter = UrlListConverter.class)
+    @Column(length = 16384, columnDefinition = "VARCHAR(16384)")
+    private List<String> mirrors = new ArrayList<>();
     private String fileName;
+    private String host;
     private String status;
     private long totalSize;
     private long downloadedSize;
     private int progress;
     private int threadCount;
+    @Column(columnDefinition = "INTEGER DEFAULT 0")
+    private int splitCount;
     private LocalDateTime startTime;
     private LocalDateTime completionTime;
     private String filePath;
+    private String etag;
+    private String lastModified;
+    private String writeEngine;
+    @Column(columnDefinition = "INTEGER DEFAULT 0")
+    private int priority;
+    // Bandwidth cap of this download, 0 for unlimited
+    @Column(columnDefinition = "BIGINT DEFAULT 0")
+    private long maxBytesPerSecond;
     
+    // Expected digest of the whole file (hex) and the digest actually computed
+    private String checksumAlgorithm;
+    private String expectedChecksum;
+    private String checksum;
+
+    // Thread count steered by the SegmentTuner while running
+    @Column(columnDefinition = "BOOLEAN DEFAULT FALSE")
+    private boolean adaptive;
+
+    // Manifest this download was submitted with, null for single submissions
+    private Long batchId;
+
+    // Completed from the download cache without fetching the body
+    @Column(columnDefinition = "BOOLEAN DEFAULT FALSE")
+    private boolean fromCache;
+
+    // Extract the archive while it downloads; where it went, or why it could not, once completed
+    @Column(columnDefinition = "BOOLEAN DEFAULT FALSE")
+    private boolean extract;
+    private String extractedPath;
+    @Column(length = 1000)
+    private String extractError;
+
     @Column(length = 1000)
     private String errorMessage;
+
+    // Cluster node probing or finishing the download and until when (epoch ms), see DownloadPart
+    @Column(updatable = false)
+    private String leaseOwner;
+    @Column(updatable = false, columnDefinition = "BIGINT DEFAULT 0")
+    private long leaseExpires;
     
     @Enumerated(EnumType.STRING)
     private DownloadStatus downloadStatus;
@@ -0,0 +1,25 @@
+package com.downloader.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Downloads submitted together from one manifest. The downloads point back to their batch
+ * through {@link Download#getBatchId()}.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+public class DownloadBatch {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String name;
+    // Manifest entries accepted as downloads
+    private int entries;
+    private LocalDateTime createdAt;
+}
@@ -19,6 +19,21 @@ public class DownloadPart {
     private long startByte;
     private long endByte;
     private long downloadedBytes;
+    @Column(columnDefinition = "INTEGER DEFAULT 0")
+    private int attempts;
+
+    @Column(length = 1000)
+    private String lastError;
+
+    // Hex digest of the part's bytes as received, in the algorithm of the download's checksum
+    @Column(length = 128)
+    private String digest;
+
+    // Cluster node running the part and until when (epoch ms), only ever written with conditional updates
+    @Column(updatable = false)
+    private String leaseOwner;
+    @Column(updatable = false, columnDefinition = "BIGINT DEFAULT 0")
+    private long leaseExpires;
 
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "download_id")
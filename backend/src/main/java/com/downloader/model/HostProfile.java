@@ -0,0 +1,29 @@
+package com.downloader.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * What adaptive downloads learned about an origin. The next adaptive download from the host
+ * starts with {@link #segments} connections instead of probing up from scratch.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@Table(indexes = @Index(name = "idx_host_profile_host", columnList = "host", unique = true))
+public class HostProfile {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String host;
+    // Segment count the last adaptive download settled on
+    private int segments;
+    private long bytesPerSecond;
+    private long timeToFirstByteMs;
+    private long downloads;
+    private LocalDateTime updatedAt;
+}
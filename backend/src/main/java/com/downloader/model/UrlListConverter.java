@@ -0,0 +1,27 @@
+package com.downloader.model;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores a list of URLs in one column, one URL per line. URLs can't contain line breaks.
+ */
+@Converter
+public class UrlListConverter implements AttributeConverter<List<String>, String> {
+
+    public static final String SEPARATOR = "\n";
+
+    @Override
+    public String convertToDatabaseColumn(List<String> urls) {
+        return urls == null || urls.isEmpty() ? null : String.join(SEPARATOR, urls);
+    }
+
+    @Override
+    public List<String> convertToEntityAttribute(String column) {
+        return column == null || column.isBlank() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(column.split(SEPARATOR)));
+    }
+}
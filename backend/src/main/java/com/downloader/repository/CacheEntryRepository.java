@@ -0,0 +1,15 @@
+package com.downloader.repository;
+
+import com.downloader.model.CacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface CacheEntryRepository extends JpaRepository<CacheEntry, Long> {
+    Optional<CacheEntry> findFirstByUrl(String url);
+
+    List<CacheEntry> findByChecksum(String checksum);
+}
@@ -0,0 +1,9 @@
+package com.downloader.repository;
+
+import com.downloader.model.DownloadBatch;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface DownloadBatchRepository extends JpaRepository<DownloadBatch, Long> {
+}
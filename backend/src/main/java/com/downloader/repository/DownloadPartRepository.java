@@ -4,6 +4,12 @@ import com.downloader.model.DownloadPart;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface DownloadPartRepository extends JpaRepository<DownloadPart, Long> {
+    List<DownloadPart> findByDownloadIdOrderByStartByte(Long downloadId);
+
+    List<DownloadPart> findByDownloadIdInOrderByStartByte(Collection<Long> downloadIds);
 } 
\ No newline at end of file
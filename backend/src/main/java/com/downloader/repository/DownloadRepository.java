@@ -2,14 +2,42 @@ package com.downloader.repository;
 
 import com.downloader.model.Download;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import jakarta.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-public interface DownloadRepository extends JpaRepository<Download, Long> {
+public interface DownloadRepository extends JpaRepository<Download, Long>, DownloadRepositoryCustom {
     @QueryHints({ @QueryHint(name = "org.hibernate.cacheable", value = "true") })
     List<Download> findAll();
-} 
\ No newline at end of file
+
+    List<Download> findByDownloadStatusIn(Collection<Download.DownloadStatus> statuses);
+
+    // Id and host of each download of a batch
+    @Query("SELECT d.id, d.host FROM Download d WHERE d.batchId = :batchId ORDER BY d.id")
+    List<Object[]> findIdsAndHostsByBatchId(@Param("batchId") Long batchId);
+
+    // Per status of a batch: downloads, total and downloaded bytes, and downloads not probed yet
+    @Query("SELECT d.downloadStatus, COUNT(d), SUM(d.totalSize), SUM(d.downloadedSize), "
+            + "SUM(CASE WHEN d.totalSize = 0 THEN 1 ELSE 0 END) FROM Download d WHERE d.batchId = :batchId GROUP BY d.downloadStatus")
+    List<Object[]> summarizeBatch(@Param("batchId") Long batchId);
+
+    // Single column update, saving the whole entity could overwrite progress the journal wrote meanwhile
+    @Modifying
+    @Transactional
+    @Query("UPDATE Download d SET d.maxBytesPerSecond = :maxBytesPerSecond WHERE d.id = :id")
+    int updateMaxBytesPerSecond(@Param("id") Long id, @Param("maxBytesPerSecond") long maxBytesPerSecond);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Download d SET d.extractedPath = :extractedPath, d.extractError = :extractError WHERE d.id = :id")
+    int updateExtraction(@Param("id") Long id, @Param("extractedPath") String extractedPath,
+                         @Param("extractError") String extractError);
+}
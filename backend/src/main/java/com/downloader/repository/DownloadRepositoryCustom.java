@@ -0,0 +1,13 @@
+package com.downloader.repository;
+
+import com.downloader.dto.DownloadPage;
+import com.downloader.dto.DownloadQuery;
+
+public interface DownloadRepositoryCustom {
+
+    /**
+     * Keyset-paginated listing of download summaries. The cost of a page does not depend on
+     * how far into the history it is.
+     */
+    DownloadPage findPage(DownloadQuery query);
+}
@@ -0,0 +1,162 @@
+package com.downloader.repository;
+
+import com.downloader.dto.DownloadPage;
+import com.downloader.dto.DownloadQuery;
+import com.downloader.dto.DownloadSummary;
+import com.downloader.model.Download;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Listing queries select only the summary columns, so neither the EAGER parts collection nor
+ * the long URL column is loaded. Pages are addressed by the (sort key, id) of the
+ * last row instead of an offset, which keeps every page an index range scan.
+ */
+public class DownloadRepositoryImpl implements DownloadRepositoryCustom {
+
+    public static final int MAX_PAGE_SIZE = 500;
+
+    // Sortable columns and how their cursor values are parsed back
+    private static final Map<String, Function<String, Comparable<?>>> SORT_KEYS = Map.of(
+            "id", Long::valueOf,
+            "startTime", LocalDateTime::parse,
+            "totalSize", Long::valueOf);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public DownloadPage findPage(DownloadQuery query) {
+        String sort = query.getSort() != null ? query.getSort() : "id";
+        Function<String, Comparable<?>> sortKeyParser = SORT_KEYS.get(sort);
+        if (sortKeyParser == null) {
+            throw new IllegalArgumentException("Unsupported sort field: " + sort + ", expected one of " + SORT_KEYS.keySet());
+        }
+        int limit = Math.max(1, Math.min(query.getLimit(), MAX_PAGE_SIZE));
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> cq = cb.createTupleQuery();
+        Root<Download> root = cq.from(Download.class);
+        cq.multiselect(root.get("id"), root.get("fileName"), root.get("host"), root.get("downloadStatus"),
+                root.get("totalSize"), root.get("downloadedSize"), root.get("progress"), root.get("threadCount"),
+                root.get("priority"), root.get("startTime"), root.get("completionTime"), root.get("errorMessage"),
+                root.get("extractedPath"), root.get("extractError"));
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (query.getStatuses() != null && !query.getStatuses().isEmpty()) {
+            predicates.add(root.get("downloadStatus").in(query.getStatuses()));
+        }
+        if (query.getFrom() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(root.get("startTime"), query.getFrom()));
+        }
+        if (query.getTo() != null) {
+            predicates.add(cb.lessThan(root.get("startTime"), query.getTo()));
+        }
+        if (query.getHost() != null && !query.getHost().isBlank()) {
+            predicates.add(cb.equal(root.get("host"), query.getHost().toLowerCase()));
+        }
+        if (query.getBatchId() != null) {
+            predicates.add(cb.equal(root.get("batchId"), query.getBatchId()));
+        }
+        if (!"id".equals(sort)) {
+            // Keyset comparisons can't step over NULL sort keys
+            predicates.add(cb.isNotNull(root.get(sort)));
+        }
+        if (query.getCursor() != null && !query.getCursor().isBlank()) {
+            predicates.add(afterCursor(cb, root, sort, sortKeyParser, query.getCursor(), query.isAscending()));
+        }
+        cq.where(predicates.toArray(new Predicate[0]));
+
+        if (query.isAscending()) {
+            cq.orderBy(cb.asc(root.get(sort)), cb.asc(root.get("id")));
+        } else {
+            cq.orderBy(cb.desc(root.get(sort)), cb.desc(root.get("id")));
+        }
+
+        // One extra row tells whether there is a next page
+        List<Tuple> rows = entityManager.createQuery(cq).setMaxResults(limit + 1).getResultList();
+        List<DownloadSummary> items = new ArrayList<>(Math.min(rows.size(), limit));
+        for (int i = 0; i < rows.size() && i < limit; i++) {
+            items.add(toSummary(rows.get(i)));
+        }
+
+        String nextCursor = null;
+        if (rows.size() > limit) {
+            DownloadSummary last = items.get(items.size() - 1);
+            Object sortKey = switch (sort) {
+                case "startTime" -> last.getStartTime();
+                case "totalSize" -> last.getTotalSize();
+                default -> last.getId();
+            };
+            nextCursor = encodeCursor(sortKey, last.getId());
+        }
+        return new DownloadPage(items, nextCursor);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Predicate afterCursor(CriteriaBuilder cb, Root<Download> root, String sort,
+                                 Function<String, Comparable<?>> sortKeyParser, String cursor, boolean ascending) {
+        String decoded;
+        Comparable sortKey;
+        Long id;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.lastIndexOf('|');
+            sortKey = sortKeyParser.apply(decoded.substring(0, separator));
+            id = Long.valueOf(decoded.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+
+        Path<Comparable> sortPath = root.get(sort);
+        Path<Long> idPath = root.get("id");
+        if ("id".equals(sort)) {
+            return ascending ? cb.greaterThan(idPath, id) : cb.lessThan(idPath, id);
+        }
+        // (sortKey, id) > cursor, spelled out because JPA has no row value comparison
+        if (ascending) {
+            return cb.or(cb.greaterThan(sortPath, sortKey),
+                    cb.and(cb.equal(sortPath, sortKey), cb.greaterThan(idPath, id)));
+        }
+        return cb.or(cb.lessThan(sortPath, sortKey),
+                cb.and(cb.equal(sortPath, sortKey), cb.lessThan(idPath, id)));
+    }
+
+    private static String encodeCursor(Object sortKey, Long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((sortKey + "|" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static DownloadSummary toSummary(Tuple row) {
+        DownloadSummary summary = new DownloadSummary();
+        summary.setId(row.get(0, Long.class));
+        summary.setFileName(row.get(1, String.class));
+        summary.setHost(row.get(2, String.class));
+        summary.setDownloadStatus(row.get(3, Download.DownloadStatus.class));
+        summary.setTotalSize(row.get(4, Long.class));
+        summary.setDownloadedSize(row.get(5, Long.class));
+        summary.setProgress(row.get(6, Integer.class));
+        summary.setThreadCount(row.get(7, Integer.class));
+        summary.setPriority(row.get(8, Integer.class));
+        summary.setStartTime(row.get(9, LocalDateTime.class));
+        summary.setCompletionTime(row.get(10, LocalDateTime.class));
+        summary.setErrorMessage(row.get(11, String.class));
+        summary.setExtractedPath(row.get(12, String.class));
+        summary.setExtractError(row.get(13, String.class));
+        return summary;
+    }
+}
@@ -0,0 +1,12 @@
+package com.downloader.repository;
+
+import com.downloader.model.HostProfile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface HostProfileRepository extends JpaRepository<HostProfile, Long> {
+    Optional<HostProfile> findByHost(String host);
+}
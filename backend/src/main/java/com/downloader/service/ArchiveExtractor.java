@@ -0,0 +1,484 @@
+package com.downloader.service;
+
+import com.downloader.model.Download;
+import com.downloader.repository.DownloadRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Extracts downloads of {@code .zip}, {@code .tar}, {@code .tar.gz}/{@code .tgz} and
+ * {@code .gz} files that asked for it while they download. The extraction reads the file in
+ * order, following the contiguous prefix the part workers have written, and decompresses
+ * and writes entries as that prefix grows, so when the last byte lands only the tail is left.
+ * <p>
+ * Every stage pulls from the one before it: entries are written as fast as they are
+ * decompressed, decompression as fast as the prefix grows, and a reader that caught up waits
+ * for the next {@code download.extract.tick-ms}. The file on disk is the buffer between the
+ * download and the extraction, so neither holds up the other. At most
+ * {@code download.extract.threads} extractions read and decompress at a time; one that waits
+ * for the download gives its slot to the next, so every running download keeps extracting
+ * however many there are. Each extraction still has a thread of its own, parked while it
+ * waits, so their number is bounded by the downloads the scheduler runs. Output goes to a hidden
+ * working path next to the file and is moved to its final name once the download completed;
+ * a download that pauses, fails or re-fetches parts drops it and starts over with its next run.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ArchiveExtractor {
+
+    private static final int READ_SIZE = 256 * 1024;
+    private static final int WRITE_SIZE = 64 * 1024;
+
+    private final DownloadRepository downloadRepository;
+    private final ProgressBroadcaster progressBroadcaster;
+    private final DownloadMetrics downloadMetrics;
+
+    private final Map<Long, Extraction> extractions = new ConcurrentHashMap<>();
+    private ExecutorService extractors;
+    // Slots of the extractions that are reading or decompressing, not waiting for the download
+    private Semaphore slots;
+
+    @Value("${download.extract.threads:2}")
+    private int threads;
+
+    @Value("${download.extract.tick-ms:100}")
+    private long tickMs;
+
+    @PostConstruct
+    void start() {
+        slots = new Semaphore(threads);
+        AtomicInteger threadNumber = new AtomicInteger();
+        extractors = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "extract-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        extractions.values().forEach(Extraction::cancel);
+        extractors.shutdownNow();
+    }
+
+    /**
+     * Starts extracting a download whose part workers are starting, if it asked for it.
+     */
+    void start(DownloadProgress progress) {
+        Download download = progress.getDownload();
+        if (download.isExtract() && download.getTotalSize() > 0 && Format.of(download.getFileName()) != null) {
+            start(download, download.getTotalSize(), progress::getContiguousPrefix);
+        }
+    }
+
+    /**
+     * Publishes the extraction of a download that has completed, or starts one over the whole
+     * file if the download completed without part workers.
+     */
+    void completed(Download download) {
+        if (!download.isExtract()) {
+            return;
+        }
+        if (Format.of(download.getFileName()) == null) {
+            record(download, null, "Not a supported archive: " + download.getFileName());
+            return;
+        }
+        Extraction extraction = extractions.get(download.getId());
+        if (extraction == null) {
+            long size;
+            try {
+                size = Files.size(Paths.get(download.getFilePath()));
+            } catch (IOException e) {
+                record(download, null, "Extraction failed: " + e.getMessage());
+                return;
+            }
+            extraction = start(download, size, () -> size);
+        }
+        extraction.confirmed.complete(download);
+    }
+
+    /**
+     * Stops the extraction of a download that stopped without completing and drops its output.
+     */
+    void cancel(Long downloadId) {
+        Extraction extraction = extractions.remove(downloadId);
+        if (extraction != null) {
+            extraction.cancel();
+        }
+    }
+
+    private Extraction start(Download download, long size, LongSupplier available) {
+        Extraction extraction = new Extraction(download, Format.of(download.getFileName()), size, available);
+        Extraction previous = extractions.put(download.getId(), extraction);
+        if (previous != null) {
+            previous.cancel();
+        }
+        CompletableFuture.supplyAsync(extraction::extract, extractors)
+                .whenComplete((stats, error) -> extraction.confirmed.whenComplete((completed, cancelled) -> {
+                    extractions.remove(download.getId(), extraction);
+                    if (cancelled != null) {
+                        deleteQuietly(extraction.working);
+                    } else if (error != null) {
+                        Throwable cause = error;
+                        while ((cause instanceof CompletionException || cause instanceof UncheckedIOException) && cause.getCause() != null) {
+                            cause = cause.getCause();
+                        }
+                        log.warn("Download {} could not be extracted: {}", download.getId(), cause.getMessage());
+                        deleteQuietly(extraction.working);
+                        downloadMetrics.extraction(extraction.format.name, "failed", 0, 0, 0, 0);
+                        record(completed, null, "Extraction failed: " + cause.getMessage());
+                    } else {
+                        publish(extraction, completed, stats);
+                    }
+                }));
+        return extraction;
+    }
+
+    private void publish(Extraction extraction, Download download, Stats stats) {
+        try {
+            Path target = extraction.target();
+            Files.move(extraction.working, target);
+            long nanos = stats.finishNanos - stats.startNanos;
+            downloadMetrics.extraction(extraction.format.name, "completed", nanos, stats.read, stats.written, stats.waitNanos);
+            long busyNanos = nanos - stats.waitNanos;
+            log.info("Download {} extracted {} entries, {} bytes to {} in {} ms, {} ms of it waiting for the download ({} MB/s)",
+                    download.getId(), stats.entries, stats.written, target, nanos / 1_000_000, stats.waitNanos / 1_000_000,
+                    busyNanos > 0 ? stats.written * 1000 / busyNanos : 0);
+            record(download, target.toString(), null);
+        } catch (IOException e) {
+            log.warn("Download {} could not move its extracted output: {}", download.getId(), e.getMessage());
+            deleteQuietly(extraction.working);
+            record(download, null, "Extraction failed: " + e.getMessage());
+        }
+    }
+
+    private void record(Download download, String extractedPath, String extractError) {
+        download.setExtractedPath(extractedPath);
+        download.setExtractError(extractError);
+        downloadRepository.updateExtraction(download.getId(), extractedPath, extractError);
+        progressBroadcaster.publish(download);
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Archive types by file name. Names get their extension from the Content-Type when the
+     * URL has none, see {@code DownloadService.getFileNameFromUrl}.
+     */
+    private enum Format {
+        TAR_GZ("tar.gz", ".tar.gz", ".tgz"),
+        TAR("tar", ".tar"),
+        ZIP("zip", ".zip"),
+        GZIP("gz", ".gz");
+
+        private final String name;
+        private final String[] suffixes;
+
+        Format(String name, String... suffixes) {
+            this.name = name;
+            this.suffixes = suffixes;
+        }
+
+        static Format of(String fileName) {
+            if (fileName == null) {
+                return null;
+            }
+            String lower = fileName.toLowerCase(Locale.ROOT);
+            for (Format format : values()) {
+                for (String suffix : format.suffixes) {
+                    if (lower.endsWith(suffix) && lower.length() > suffix.length()) {
+                        return format;
+                    }
+                }
+            }
+            return null;
+        }
+
+        // The file name without the archive suffix
+        String baseName(String fileName) {
+            String lower = fileName.toLowerCase(Locale.ROOT);
+            for (String suffix : suffixes) {
+                if (lower.endsWith(suffix)) {
+                    return fileName.substring(0, fileName.length() - suffix.length());
+                }
+            }
+            return fileName;
+        }
+    }
+
+    /**
+     * What an extraction read and wrote. Written by the extracting thread only.
+     */
+    private static class Stats {
+        private long startNanos;
+        private long finishNanos;
+        private long waitNanos;
+        private long read;
+        private long written;
+        private int entries;
+    }
+
+    /**
+     * One pass over the file of a download, from its first byte.
+     */
+    private class Extraction {
+        private final Download download;
+        private final Format format;
+        private final long size;
+        private final LongSupplier available;
+        private final Path file;
+        private final Path working;
+        // Completed with the download once it completed, cancelled if it stopped otherwise
+        private final CompletableFuture<Download> confirmed = new CompletableFuture<>();
+        private volatile boolean cancelled;
+        // Whether the extracting thread holds one of the slots
+        private boolean holdsSlot;
+
+        Extraction(Download download, Format format, long size, LongSupplier available) {
+            this.download = download;
+            this.format = format;
+            this.size = size;
+            this.available = available;
+            this.file = Paths.get(download.getFilePath());
+            this.working = file.resolveSibling("." + format.baseName(file.getFileName().toString())
+                    + "." + download.getId() + ".extracting");
+        }
+
+        void cancel() {
+            cancelled = true;
+            confirmed.completeExceptionally(new CancellationException());
+        }
+
+        // The final path, next to the file, unless something of that name is already there
+        Path target() {
+            Path target = file.resolveSibling(format.baseName(file.getFileName().toString()));
+            return Files.exists(target) ? file.resolveSibling(target.getFileName() + "-" + download.getId()) : target;
+        }
+
+        Stats extract() {
+            Stats stats = new Stats();
+            stats.startNanos = System.nanoTime();
+            deleteQuietly(working);
+            try (PrefixInputStream source = new PrefixInputStream(file, size, available, stats)) {
+                acquireSlot();
+                switch (format) {
+                    case GZIP -> {
+                        try (InputStream in = new GzipCompressorInputStream(source, true)) {
+                            stats.written += copy(in, working);
+                            stats.entries = 1;
+                        }
+                    }
+                    case TAR_GZ -> extractEntries(new TarArchiveInputStream(new GzipCompressorInputStream(source, true)), stats);
+                    case TAR -> extractEntries(new TarArchiveInputStream(source), stats);
+                    case ZIP -> extractEntries(new ZipArchiveInputStream(source, StandardCharsets.UTF_8.name(), true, true), stats);
+                }
+                stats.read = source.position;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                releaseSlot();
+            }
+            stats.finishNanos = System.nanoTime();
+            return stats;
+        }
+
+        private void acquireSlot() throws IOException {
+            try {
+                slots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Extraction interrupted");
+            }
+            holdsSlot = true;
+        }
+
+        private void releaseSlot() {
+            if (holdsSlot) {
+                holdsSlot = false;
+                slots.release();
+            }
+        }
+
+        private void extractEntries(ArchiveInputStream archive, Stats stats) throws IOException {
+            try (archive) {
+                Files.createDirectories(working);
+                ArchiveEntry entry;
+                while ((entry = archive.getNextEntry()) != null) {
+                    if (!archive.canReadEntryData(entry)) {
+                        throw new IOException("Unsupported entry " + entry.getName());
+                    }
+                    Path target = working.resolve(entry.getName()).normalize();
+                    if (!target.startsWith(working) || target.equals(working)) {
+                        if (target.equals(working) && entry.isDirectory()) {
+                            continue;
+                        }
+                        throw new IOException("Entry " + entry.getName() + " points outside the archive");
+                    }
+                    if (entry.isDirectory()) {
+                        Files.createDirectories(target);
+                    } else if (isLink(entry)) {
+                        log.debug("Download {} skipped link {}", download.getId(), entry.getName());
+                        continue;
+                    } else {
+                        Files.createDirectories(target.getParent());
+                        stats.written += copy(archive, target);
+                    }
+                    if (entry.getLastModifiedDate() != null) {
+                        Files.setLastModifiedTime(target, FileTime.fromMillis(entry.getLastModifiedDate().getTime()));
+                    }
+                    stats.entries++;
+                }
+            }
+        }
+
+        private static boolean isLink(ArchiveEntry entry) {
+            if (entry instanceof TarArchiveEntry tar) {
+                return !tar.isFile();
+            }
+            return entry instanceof ZipArchiveEntry zip && zip.isUnixSymlink();
+        }
+
+        private long copy(InputStream in, Path target) throws IOException {
+            long copied = 0;
+            byte[] buffer = new byte[WRITE_SIZE];
+            try (OutputStream out = Files.newOutputStream(target)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    copied += read;
+                }
+            }
+            return copied;
+        }
+
+        /**
+         * The file of the download up to the bytes written so far. A read past them waits
+         * until the download has written more, and fails once the extraction is cancelled.
+         */
+        private class PrefixInputStream extends InputStream {
+            private final FileChannel channel;
+            private final long size;
+            private final LongSupplier available;
+            private final Stats stats;
+            private final ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE).flip();
+            private long position;
+
+            PrefixInputStream(Path file, long size, LongSupplier available, Stats stats) throws IOException {
+                this.channel = FileChannel.open(file, StandardOpenOption.READ);
+                this.size = size;
+                this.available = available;
+                this.stats = stats;
+            }
+
+            @Override
+            public int read() throws IOException {
+                return fill() ? buffer.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int count = Math.min(length, buffer.remaining());
+                buffer.get(bytes, offset, count);
+                return count;
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+
+            // Makes sure the buffer has bytes, returns false at the end of the file
+            private boolean fill() throws IOException {
+                if (buffer.hasRemaining()) {
+                    return true;
+                }
+                if (position >= size) {
+                    return false;
+                }
+                long limit = available.getAsLong();
+                if (limit <= position) {
+                    // Another extraction can decompress while this one waits for the download
+                    releaseSlot();
+                    long waitStart = System.nanoTime();
+                    while ((limit = available.getAsLong()) <= position) {
+                        if (cancelled) {
+                            throw new IOException("Extraction cancelled");
+                        }
+                        try {
+                            Thread.sleep(tickMs);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Extraction interrupted");
+                        }
+                    }
+                    stats.waitNanos += System.nanoTime() - waitStart;
+                    acquireSlot();
+                }
+                if (cancelled) {
+                    throw new IOException("Extraction cancelled");
+                }
+                buffer.clear().limit((int) Math.min(READ_SIZE, limit - position));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) == -1) {
+                        throw new IOException("File ended at " + (position + buffer.position()) + " of " + size + " bytes");
+                    }
+                }
+                position += buffer.flip().remaining();
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.downloader.service;
+
+import com.downloader.dto.BandwidthStats;
+import com.downloader.model.Download;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Hierarchical bandwidth limit: every chunk a part worker writes is charged to the global
+ * bucket ({@code download.bandwidth.max-bytes-per-second}), the bucket of its host
+ * ({@code download.bandwidth.max-bytes-per-second-per-host}) and the bucket of its download
+ * ({@link Download#getMaxBytesPerSecond()}), and the worker waits for the slowest of the three.
+ * A limit of 0 means unlimited.
+ * <p>
+ * Workers draw a whole chunk at a time with one CAS per bucket and sleep outside of any lock,
+ * so throttled workers don't contend with each other. The wait is charged to the bucket that
+ * caused it, see {@link #getStats()}.
+ */
+@Component
+@Slf4j
+public class BandwidthLimiter {
+
+    // A pause should not wait for a long reservation to run out
+    private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Map<String, TokenBucket> hosts = new ConcurrentHashMap<>();
+    private final Map<Long, Throttle> downloads = new ConcurrentHashMap<>();
+    private TokenBucket global;
+
+    @Value("${download.bandwidth.max-bytes-per-second:0}")
+    private long maxBytesPerSecond;
+
+    @Value("${download.bandwidth.max-bytes-per-second-per-host:0}")
+    private volatile long maxBytesPerSecondPerHost;
+
+    @Value("${download.bandwidth.burst-ms:250}")
+    private long burstMs;
+
+    @PostConstruct
+    void start() {
+        global = new TokenBucket(maxBytesPerSecond, burstNanos());
+    }
+
+    /**
+     * Creates the bucket of a download that is starting. Called before its part workers run.
+     */
+    public void register(Download download) {
+        String host = download.getHost() != null ? download.getHost() : DownloadScheduler.hostOf(download.getUrl());
+        downloads.put(download.getId(), new Throttle(hostBucket(host), new TokenBucket(download.getMaxBytesPerSecond(), burstNanos())));
+    }
+
+    public void unregister(Long downloadId) {
+        downloads.remove(downloadId);
+    }
+
+    /**
+     * Throttle of a connection of a running download to {@code host}, or {@code null} if the
+     * download is not registered. A mirror can be on another host than the download's URL, its
+     * bytes count against the limit of the host they come from.
+     */
+    public Throttle throttle(Long downloadId, String host) {
+        Throttle throttle = downloads.get(downloadId);
+        if (throttle == null || host == null || throttle.host == hosts.get(host)) {
+            return throttle;
+        }
+        return new Throttle(hostBucket(host), throttle.download);
+    }
+
+    /**
+     * Throttle of a download fetched in one go before it is stored, such as a small file. It
+     * draws from the global and host buckets like any other; its own limit is fixed.
+     */
+    public Throttle throttle(String host, long downloadBytesPerSecond) {
+        return new Throttle(hostBucket(host), new TokenBucket(downloadBytesPerSecond, burstNanos()));
+    }
+
+    /**
+     * Changes the limit of a running download. Takes effect at once, throttled workers wake up.
+     */
+    public void setDownloadLimit(Long downloadId, long bytesPerSecond) {
+        Throttle throttle = downloads.get(downloadId);
+        if (throttle != null) {
+            throttle.download.setBytesPerSecond(bytesPerSecond);
+        }
+    }
+
+    public synchronized void setLimits(Long globalBytesPerSecond, Long perHostBytesPerSecond) {
+        if (globalBytesPerSecond != null) {
+            global.setBytesPerSecond(globalBytesPerSecond);
+        }
+        if (perHostBytesPerSecond != null) {
+            maxBytesPerSecondPerHost = perHostBytesPerSecond;
+            hosts.values().forEach(bucket -> bucket.setBytesPerSecond(perHostBytesPerSecond));
+        }
+        log.info("Bandwidth limits: {} B/s global, {} B/s per host", global.getBytesPerSecond(), maxBytesPerSecondPerHost);
+    }
+
+    public BandwidthStats getStats() {
+        Map<String, BandwidthStats.BucketStats> hostStats = new HashMap<>();
+        hosts.forEach((host, bucket) -> hostStats.put(host, stats(bucket)));
+        Map<Long, BandwidthStats.BucketStats> downloadStats = new HashMap<>();
+        downloads.forEach((id, throttle) -> downloadStats.put(id, stats(throttle.download)));
+        return new BandwidthStats(stats(global), maxBytesPerSecondPerHost, hostStats, downloadStats);
+    }
+
+    private static BandwidthStats.BucketStats stats(TokenBucket bucket) {
+        return new BandwidthStats.BucketStats(bucket.getBytesPerSecond(), bucket.getBytesAcquired(),
+                TimeUnit.NANOSECONDS.toMillis(bucket.getWaitedNanos()), bucket.getThrottledAcquisitions());
+    }
+
+    private TokenBucket hostBucket(String host) {
+        return hosts.computeIfAbsent(host, h -> new TokenBucket(maxBytesPerSecondPerHost, burstNanos()));
+    }
+
+    private long burstNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(burstMs);
+    }
+
+    /**
+     * The buckets one download draws from.
+     */
+    public class Throttle {
+        private final TokenBucket host;
+        private final TokenBucket download;
+
+        private Throttle(TokenBucket host, TokenBucket download) {
+            this.host = host;
+            this.download = download;
+        }
+
+        /**
+         * Takes {@code bytes} from all three buckets.
+         *
+         * @return how long the caller has to wait before reading on, in nanoseconds
+         */
+        public long reserve(int bytes) {
+            long now = System.nanoTime();
+            TokenBucket bottleneck = global;
+            long wait = global.reserve(bytes, now);
+            long hostWait = host.reserve(bytes, now);
+            if (hostWait > wait) {
+                wait = hostWait;
+                bottleneck = host;
+            }
+            long downloadWait = download.reserve(bytes, now);
+            if (downloadWait > wait) {
+                wait = downloadWait;
+                bottleneck = download;
+            }
+            if (wait > 0) {
+                bottleneck.recordWait(wait);
+            }
+            return wait;
+        }
+
+        /**
+         * Sleeps off a reservation, returning early once {@code cancelled} turns true or one of
+         * the limits changed. What the reservation still owes stays in the buckets at their new
+         * rates, so the next reservation waits for it.
+         */
+        public void await(long nanos, BooleanSupplier cancelled) throws InterruptedIOException {
+            long deadline = System.nanoTime() + nanos;
+            long generation = generation();
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0 && !cancelled.getAsBoolean()
+                    && generation() == generation) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(remaining, MAX_SLEEP_NANOS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttled");
+                }
+            }
+        }
+
+        // Changes whenever the rate of one of the buckets changes
+        private long generation() {
+            return global.getGeneration() + host.getGeneration() + download.getGeneration();
+        }
+    }
+}
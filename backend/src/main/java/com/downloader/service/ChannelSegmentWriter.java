@@ -0,0 +1,112 @@
+package com.downloader.service;
+
+import com.downloader.model.Download;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NIO write path: all parts of a download share one {@link FileChannel} and write with
+ * positional writes from pooled direct buffers, so there is no seek, no per-part file handle
+ * and no per-part heap buffer.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ChannelSegmentWriter implements SegmentWriter {
+
+    public static final String NAME = "nio";
+
+    private final BufferPool bufferPool;
+    private final DownloadMetrics downloadMetrics;
+    private final Map<Long, FileChannel> channels = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public long write(Download download, long position, InputStream in, ChunkListener listener) throws IOException {
+        FileChannel channel = channel(download);
+        ReadableByteChannel source = Channels.newChannel(in);
+        ByteBuffer buffer = bufferPool.acquire();
+        long written = 0;
+        Timer writeTimer = downloadMetrics.diskWrite(NAME);
+        try {
+            while (fill(source, buffer)) {
+                buffer.flip();
+                int bytesRead = buffer.remaining();
+                int allowed = listener.claim(bytesRead);
+                buffer.limit(allowed);
+                ByteBuffer chunk = buffer.duplicate();
+                long start = System.nanoTime();
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (allowed > 0) {
+                    written += allowed;
+                    listener.onChunk(chunk);
+                }
+                if (allowed < bytesRead) {
+                    break;
+                }
+                buffer.clear();
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+        return written;
+    }
+
+    @Override
+    public void release(Download download) {
+        FileChannel channel = channels.remove(download.getId());
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Error closing file channel for download {}: {}", download.getId(), e.getMessage());
+            }
+        }
+    }
+
+    private FileChannel channel(Download download) throws IOException {
+        try {
+            return channels.computeIfAbsent(download.getId(), id -> {
+                try {
+                    return FileChannel.open(Paths.get(download.getFilePath()), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Reads until the buffer is full or the stream ends, returns false when nothing was read
+    private static boolean fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) == -1) {
+                break;
+            }
+        }
+        return buffer.position() > 0;
+    }
+}
@@ -0,0 +1,110 @@
+package com.downloader.service;
+
+import com.downloader.transport.ProbeResult;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * Expected digest of a whole file, as a {@link MessageDigest} algorithm name and a lower case
+ * hex value.
+ */
+public record Checksum(String algorithm, String hex) {
+
+    public static final String SHA_256 = "SHA-256";
+    public static final String MD5 = "MD5";
+
+    /**
+     * Parses {@code sha256:<hex>}, {@code md5:<hex>} or a bare hex value whose length tells the
+     * algorithm.
+     *
+     * @throws IllegalArgumentException if the value is not a supported checksum
+     */
+    public static Checksum parse(String value) {
+        String spec = value.trim();
+        int colon = spec.indexOf(':');
+        String hex = (colon >= 0 ? spec.substring(colon + 1) : spec).trim().toLowerCase(Locale.ROOT);
+        String algorithm = colon >= 0 ? algorithmName(spec.substring(0, colon))
+                : hex.length() == 64 ? SHA_256 : hex.length() == 32 ? MD5 : null;
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Unsupported checksum: " + value);
+        }
+        HexFormat.of().parseHex(hex);
+        if (hex.length() != digestLength(algorithm) * 2) {
+            throw new IllegalArgumentException("Checksum has the wrong length for " + algorithm + ": " + value);
+        }
+        return new Checksum(algorithm, hex);
+    }
+
+    /**
+     * Checksum announced by the server through {@code Repr-Digest}, {@code Digest} or
+     * {@code Content-MD5}, preferring SHA-256. Returns {@code null} if there is none.
+     */
+    public static Checksum fromProbe(ProbeResult probe) {
+        Checksum md5 = null;
+        for (String header : new String[]{probe.getReprDigest(), probe.getDigest()}) {
+            if (header == null) {
+                continue;
+            }
+            // Repr-Digest: sha-256=:<base64>:, Digest: SHA-256=<base64>
+            for (String entry : header.split(",")) {
+                int equals = entry.indexOf('=');
+                if (equals < 0) {
+                    continue;
+                }
+                String algorithm = algorithmName(entry.substring(0, equals).trim());
+                String value = entry.substring(equals + 1).trim().replace(":", "");
+                Checksum checksum = fromBase64(algorithm, value);
+                if (checksum != null && SHA_256.equals(algorithm)) {
+                    return checksum;
+                }
+                if (checksum != null && md5 == null) {
+                    md5 = checksum;
+                }
+            }
+        }
+        if (md5 == null && probe.getContentMd5() != null) {
+            md5 = fromBase64(MD5, probe.getContentMd5().trim());
+        }
+        return md5;
+    }
+
+    public MessageDigest newDigest() {
+        return newDigest(algorithm);
+    }
+
+    static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm, e);
+        }
+    }
+
+    private static Checksum fromBase64(String algorithm, String value) {
+        if (algorithm == null) {
+            return null;
+        }
+        try {
+            byte[] digest = Base64.getDecoder().decode(value);
+            return digest.length == digestLength(algorithm) ? new Checksum(algorithm, HexFormat.of().formatHex(digest)) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String algorithmName(String name) {
+        return switch (name.trim().toLowerCase(Locale.ROOT).replace("-", "")) {
+            case "sha256" -> SHA_256;
+            case "md5" -> MD5;
+            default -> null;
+        };
+    }
+
+    private static int digestLength(String algorithm) {
+        return SHA_256.equals(algorithm) ? 32 : 16;
+    }
+}
@@ -0,0 +1,294 @@
+package com.downloader.service;
+
+import com.downloader.model.Download;
+import com.downloader.model.DownloadPart;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the digest of a download's file while it is still downloading. A background pass
+ * reads the file in order, following the contiguous prefix of bytes the part workers have
+ * already written, so when the last byte arrives only the tail after the first unfinished
+ * part is left to hash, mostly straight from the page cache.
+ * <p>
+ * Part workers also keep a digest per {@link DownloadPart} of the bytes they wrote. Those are
+ * only read back when the file does not match its expected checksum: parts whose bytes on disk
+ * no longer hash to what was received are re-fetched on their own, up to
+ * {@code download.checksum.max-refetches} times.
+ */
+@Component
+@Slf4j
+public class ChecksumVerifier {
+
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private final Map<Long, Verification> verifications = new ConcurrentHashMap<>();
+    private final Map<Long, Integer> refetches = new ConcurrentHashMap<>();
+    private ExecutorService hashers;
+    private ScheduledExecutorService ticker;
+
+    @Value("${download.checksum.enabled:true}")
+    private boolean enabled;
+
+    @Value("${download.checksum.threads:2}")
+    private int threads;
+
+    @Value("${download.checksum.tick-ms:200}")
+    private long tickMs;
+
+    @Value("${download.checksum.max-refetches:2}")
+    private int maxRefetches;
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        hashers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "checksum-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "checksum-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(() -> verifications.values().forEach(this::schedule), tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        ticker.shutdownNow();
+        hashers.shutdownNow();
+        verifications.values().forEach(Verification::close);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets up the digest of a part a worker is about to download. Bytes a previous run already
+     * wrote for it are read back from disk first.
+     */
+    void startPart(Download download, PartProgress part) throws IOException {
+        if (!enabled || !part.needsDigest()) {
+            return;
+        }
+        MessageDigest digest = Checksum.newDigest(algorithm(download));
+        long written = part.getDownloadedBytes();
+        if (written > 0) {
+            try (FileChannel channel = FileChannel.open(Paths.get(download.getFilePath()), StandardOpenOption.READ)) {
+                hashRange(channel, part.getPart().getStartByte(), written, digest);
+            }
+        }
+        part.startDigest(digest);
+    }
+
+    /**
+     * Starts hashing the file of a download whose part workers are starting.
+     */
+    void start(DownloadProgress progress) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Download download = progress.getDownload();
+        Verification previous = verifications.put(download.getId(), new Verification(progress));
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    /**
+     * Hashes what is left of the file once every part has been written.
+     *
+     * @return the outcome, completed on a checksum thread
+     */
+    CompletableFuture<Result> finish(DownloadProgress progress) {
+        Verification verification = verifications.get(progress.getDownload().getId());
+        if (verification == null || verification.progress != progress) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Download was not being verified"));
+        }
+        verification.finishing = true;
+        schedule(verification);
+        return verification.result;
+    }
+
+    /**
+     * Drops the pass of a download that stopped before it finished, a resume starts it over.
+     */
+    void cancel(Long downloadId) {
+        Verification verification = verifications.remove(downloadId);
+        if (verification != null) {
+            verification.cancel();
+        }
+    }
+
+    /**
+     * Counts a re-fetch of corrupt parts and tells whether it is still allowed.
+     */
+    boolean allowRefetch(Long downloadId) {
+        return refetches.merge(downloadId, 1, Integer::sum) <= maxRefetches;
+    }
+
+    void forget(Long downloadId) {
+        refetches.remove(downloadId);
+    }
+
+    private void schedule(Verification verification) {
+        if (verification.running.compareAndSet(false, true)) {
+            try {
+                hashers.execute(verification::advance);
+            } catch (RuntimeException e) {
+                verification.running.set(false);
+            }
+        }
+    }
+
+    private static String algorithm(Download download) {
+        return download.getChecksumAlgorithm() != null ? download.getChecksumAlgorithm() : Checksum.SHA_256;
+    }
+
+    private static void hashRange(FileChannel channel, long position, long length, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_SIZE, Math.max(1, length)));
+        long end = position + length;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("File ends at byte " + position + ", expected " + end);
+            }
+            digest.update(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    /**
+     * Parts whose bytes on disk no longer match the digest taken while they were received.
+     */
+    private static List<DownloadPart> findCorruptParts(DownloadProgress progress, FileChannel channel) throws IOException {
+        String algorithm = algorithm(progress.getDownload());
+        List<DownloadPart> corrupt = new ArrayList<>();
+        for (PartProgress part : progress.parts()) {
+            String expected = part.getDigest();
+            if (expected == null) {
+                continue;
+            }
+            MessageDigest digest = Checksum.newDigest(algorithm);
+            long start = part.getPart().getStartByte();
+            hashRange(channel, start, part.getEndByte() - start + 1, digest);
+            if (!expected.equals(HexFormat.of().formatHex(digest.digest()))) {
+                corrupt.add(part.getPart());
+            }
+        }
+        return corrupt;
+    }
+
+    /**
+     * Outcome of a verification. {@code corruptParts} is only filled on a mismatch.
+     */
+    public record Result(String checksum, boolean matches, List<DownloadPart> corruptParts) {
+    }
+
+    private class Verification {
+        private final DownloadProgress progress;
+        private final MessageDigest digest;
+        private final FileChannel channel;
+        private final byte[] buffer = new byte[READ_SIZE];
+        private final CompletableFuture<Result> result = new CompletableFuture<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+        private volatile boolean finishing;
+        private volatile boolean cancelled;
+        // Only touched by the checksum thread currently running advance()
+        private long hashedUpTo;
+
+        Verification(DownloadProgress progress) throws IOException {
+            this.progress = progress;
+            this.digest = Checksum.newDigest(algorithm(progress.getDownload()));
+            this.channel = FileChannel.open(Path.of(progress.getDownload().getFilePath()), StandardOpenOption.READ);
+        }
+
+        void advance() {
+            try {
+                long total = progress.getDownload().getTotalSize();
+                long available = finishing ? total : progress.getContiguousPrefix();
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                while (hashedUpTo < available && !cancelled) {
+                    wrapped.clear().limit((int) Math.min(buffer.length, available - hashedUpTo));
+                    int read = channel.read(wrapped, hashedUpTo);
+                    if (read < 0) {
+                        throw new IOException("File ends at byte " + hashedUpTo + ", expected " + total);
+                    }
+                    digest.update(buffer, 0, read);
+                    hashedUpTo += read;
+                }
+                if (finishing && hashedUpTo >= total && !cancelled) {
+                    complete();
+                }
+            } catch (IOException | RuntimeException e) {
+                if (cancelled) {
+                    return; // The channel was closed under us
+                }
+                log.error("Error verifying download {}: {}", progress.getDownload().getId(), e.getMessage(), e);
+                verifications.remove(progress.getDownload().getId(), this);
+                close();
+                result.completeExceptionally(e);
+            } finally {
+                running.set(false);
+            }
+        }
+
+        private void complete() throws IOException {
+            Download download = progress.getDownload();
+            verifications.remove(download.getId(), this);
+            try {
+                String checksum = HexFormat.of().formatHex(digest.digest());
+                String expected = download.getExpectedChecksum();
+                if (expected == null || expected.equalsIgnoreCase(checksum)) {
+                    result.complete(new Result(checksum, true, List.of()));
+                    return;
+                }
+                log.warn("Download {} checksum mismatch, expected {} got {}, checking parts", download.getId(), expected, checksum);
+                result.complete(new Result(checksum, false, findCorruptParts(progress, channel)));
+            } finally {
+                close();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            close();
+            result.cancel(false);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Error closing {}: {}", progress.getDownload().getFilePath(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.downloader.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Callback invoked by a {@link SegmentWriter} after each chunk has been written to disk.
+ */
+@FunctionalInterface
+public interface ChunkListener {
+
+    /**
+     * Called before a chunk is written, or before it is read by writers that read straight into
+     * the file. Returns how many of the {@code bytes} may be written; the writer stops after a
+     * short claim.
+     */
+    default int claim(int bytes) {
+        return bytes;
+    }
+
+    void onChunk(ByteBuffer chunk) throws IOException;
+
+    /**
+     * Called by writers that force the file to disk at checkpoints, once every byte before
+     * {@code position} is on stable storage.
+     */
+    default void durable(long position) {
+    }
+}
@@ -0,0 +1,324 @@
+package com.downloader.service;
+
+import com.downloader.dto.ProgressDelta;
+import com.downloader.model.Download;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Leases through which the nodes of a cluster share the downloads of one database. A node
+ * claims unfinished parts of a download, or a whole download to probe or finish it, by
+ * writing its id and a deadline into the row; its heartbeats move the deadline on while it
+ * works. A claim is a conditional update of a row that is free, expired or already the
+ * node's own, so of several nodes racing for a row exactly one gets it. The parts of a node
+ * that stopped heartbeating can be claimed once their deadline has passed and continue from
+ * the offsets it last wrote to the database.
+ * <p>
+ * Deadlines are epoch milliseconds of the node that sets them, so {@code lease-ms} has to be
+ * well above the clock skew between the nodes. Without {@code download.cluster.enabled} the
+ * node is on its own: it claims nothing and every row counts as its own.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ClusterLeases {
+
+    private static final String RUNNABLE = "d.download_status IN ('PENDING', 'IN_PROGRESS')";
+    private static final String UNFINISHED_PART = "p.downloaded_bytes < p.end_byte - p.start_byte + 1";
+    private static final String CLAIMABLE = "(p.lease_owner IS NULL OR p.lease_expires < ? OR p.lease_owner = ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DownloadMetrics downloadMetrics;
+
+    @Value("${download.cluster.enabled:false}")
+    private boolean enabled;
+
+    // all (API and downloads), api (only accepts and serves) or worker
+    @Value("${download.cluster.role:all}")
+    private String role;
+
+    // Empty for host name and server port, which a restarted node keeps, so it gets its own parts back at once
+    @Value("${download.cluster.node-id:}")
+    private String nodeId;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    @Value("${download.cluster.lease-ms:30000}")
+    private long leaseMs;
+
+    @PostConstruct
+    void start() {
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = hostName() + ":" + serverPort;
+        }
+        if (enabled) {
+            log.info("Cluster node {} in role {}, leases last {} ms", nodeId, role, leaseMs);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether this node probes and downloads, rather than only accepting and serving them.
+     */
+    public boolean runsDownloads() {
+        return !enabled || !"api".equalsIgnoreCase(role);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Lease owner of the rows this node may write, compared against {@code COALESCE(lease_owner, '')}.
+     * A single node has no leases, the rows it writes have no owner.
+     */
+    String owner() {
+        return enabled ? nodeId : "";
+    }
+
+    /**
+     * Deadline of a lease taken now, also set on part rows this node inserts.
+     */
+    long deadline() {
+        return System.currentTimeMillis() + leaseMs;
+    }
+
+    /**
+     * Claims up to {@code max} unfinished parts of a download, lowest first, skipping the parts
+     * in {@code held} which the node is already running.
+     *
+     * @return the ids of the claimed parts
+     */
+    List<Long> claimParts(Long downloadId, int max, Collection<Long> held) {
+        long now = System.currentTimeMillis();
+        List<Long> candidates = jdbcTemplate.queryForList("SELECT p.id FROM download_part p WHERE p.download_id = ? AND "
+                + UNFINISHED_PART + " AND " + CLAIMABLE + " ORDER BY p.start_byte", Long.class, downloadId, now, nodeId);
+        List<Long> claimed = new ArrayList<>();
+        for (Long id : candidates) {
+            if (claimed.size() >= max) {
+                break;
+            }
+            if (held.contains(id)) {
+                continue;
+            }
+            // Another node may have claimed it since the select, the condition decides
+            if (jdbcTemplate.update("UPDATE download_part p SET lease_owner = ?, lease_expires = ? WHERE p.id = ? AND "
+                    + CLAIMABLE, nodeId, deadline(), id, now, nodeId) == 1) {
+                claimed.add(id);
+            }
+        }
+        if (!claimed.isEmpty()) {
+            downloadMetrics.clusterClaims("part", claimed.size());
+        }
+        return claimed;
+    }
+
+    /**
+     * Claims a download to probe or finish it. Parts are claimed on their own.
+     */
+    boolean claimDownload(Long id) {
+        boolean claimed = jdbcTemplate.update("UPDATE download SET lease_owner = ?, lease_expires = ? WHERE id = ? "
+                + "AND (lease_owner IS NULL OR lease_expires < ? OR lease_owner = ?)",
+                nodeId, deadline(), id, System.currentTimeMillis(), nodeId) == 1;
+        if (claimed) {
+            downloadMetrics.clusterClaims("download", 1);
+        }
+        return claimed;
+    }
+
+    void release(Collection<Long> partIds) {
+        if (!enabled || partIds.isEmpty()) {
+            return;
+        }
+        List<Object> args = new ArrayList<>(partIds);
+        args.add(nodeId);
+        jdbcTemplate.update("UPDATE download_part SET lease_owner = NULL, lease_expires = 0 WHERE id IN ("
+                + placeholders(partIds.size()) + ") AND lease_owner = ?", args.toArray());
+    }
+
+    void releaseDownload(Long id) {
+        if (enabled) {
+            jdbcTemplate.update("UPDATE download SET lease_owner = NULL, lease_expires = 0 WHERE id = ? AND lease_owner = ?",
+                    id, nodeId);
+        }
+    }
+
+    /**
+     * Moves the deadline of every lease the node holds on. Leases that expired are renewed too
+     * as long as no other node has claimed the rows.
+     */
+    void renew() {
+        long deadline = deadline();
+        jdbcTemplate.update("UPDATE download_part SET lease_expires = ? WHERE lease_owner = ?", deadline, nodeId);
+        jdbcTemplate.update("UPDATE download SET lease_expires = ? WHERE lease_owner = ?", deadline, nodeId);
+    }
+
+    /**
+     * Downloads of which another node took over one of the given parts, or which lost their
+     * lease otherwise. The node's workers on them have to stop.
+     */
+    Set<Long> lostParts(Collection<Long> partIds) {
+        if (partIds.isEmpty()) {
+            return Set.of();
+        }
+        List<Object> args = new ArrayList<>(partIds);
+        args.add(nodeId);
+        return new LinkedHashSet<>(jdbcTemplate.queryForList("SELECT DISTINCT download_id FROM download_part WHERE id IN ("
+                + placeholders(partIds.size()) + ") AND COALESCE(lease_owner, '') <> ?", Long.class, args.toArray()));
+    }
+
+    /**
+     * Downloads among the given that were paused, failed or completed, possibly by another node.
+     */
+    List<Long> stoppedDownloads(Collection<Long> downloadIds) {
+        if (downloadIds.isEmpty()) {
+            return List.of();
+        }
+        return jdbcTemplate.queryForList("SELECT d.id FROM download d WHERE d.id IN (" + placeholders(downloadIds.size())
+                + ") AND NOT " + RUNNABLE, Long.class, downloadIds.toArray());
+    }
+
+    /**
+     * Stored downloads waiting for their probe that no node has claimed, with their hosts.
+     */
+    Map<Long, String> findUnprobed(int limit) {
+        Map<Long, String> unprobed = new LinkedHashMap<>();
+        jdbcTemplate.query("SELECT d.id, d.host FROM download d WHERE d.download_status = 'PENDING' "
+                        + "AND NOT EXISTS (SELECT 1 FROM download_part p WHERE p.download_id = d.id) "
+                        + "AND (d.lease_owner IS NULL OR d.lease_expires < ?) ORDER BY d.priority DESC, d.id LIMIT ?",
+                rs -> {
+                    unprobed.put(rs.getLong(1), rs.getString(2));
+                }, System.currentTimeMillis(), limit);
+        return unprobed;
+    }
+
+    /**
+     * Queued or running downloads with unfinished parts that can be claimed, by priority.
+     */
+    List<Long> findClaimable(int limit) {
+        return jdbcTemplate.queryForList("SELECT d.id FROM download d WHERE " + RUNNABLE
+                        + " AND EXISTS (SELECT 1 FROM download_part p WHERE p.download_id = d.id AND " + UNFINISHED_PART
+                        + " AND " + CLAIMABLE + ") ORDER BY d.priority DESC, d.id LIMIT ?",
+                Long.class, System.currentTimeMillis(), nodeId, limit);
+    }
+
+    /**
+     * Downloads whose parts are all written and released, but which nobody finished yet, for
+     * instance because the node that wrote the last part stopped before it could.
+     */
+    List<Long> findFinalizable(int limit) {
+        long now = System.currentTimeMillis();
+        return jdbcTemplate.queryForList("SELECT d.id FROM download d WHERE " + RUNNABLE + " AND " + finishedParts()
+                        + " AND (d.lease_owner IS NULL OR d.lease_expires < ?) ORDER BY d.id LIMIT ?",
+                Long.class, now, now, limit);
+    }
+
+    /**
+     * Whether every part of the download is written and no node holds a lease on one any more,
+     * so the file on the shared storage is complete.
+     */
+    boolean isFinalizable(Long downloadId) {
+        return !jdbcTemplate.queryForList("SELECT d.id FROM download d WHERE d.id = ? AND " + finishedParts(),
+                Long.class, downloadId, System.currentTimeMillis()).isEmpty();
+    }
+
+    private static String finishedParts() {
+        return "EXISTS (SELECT 1 FROM download_part p WHERE p.download_id = d.id) "
+                + "AND NOT EXISTS (SELECT 1 FROM download_part p WHERE p.download_id = d.id AND (" + UNFINISHED_PART
+                + " OR (p.lease_owner IS NOT NULL AND p.lease_expires >= ?)))";
+    }
+
+    /**
+     * Downloads running anywhere in the cluster and the given ones, whatever their status, with
+     * their parts as the workers last checkpointed them. Status changes of other nodes only
+     * show here, so the deltas carry the name and outcome of the download too.
+     */
+    List<ProgressDelta> readProgress(Collection<Long> downloadIds) {
+        Map<Long, ProgressDelta> deltas = new LinkedHashMap<>();
+        String watched = downloadIds.isEmpty() ? "" : " OR d.id IN (" + placeholders(downloadIds.size()) + ")";
+        jdbcTemplate.query("SELECT d.id, d.download_status, d.total_size, d.downloaded_size, d.progress, d.file_name, d.host, "
+                        + "d.error_message, d.extract, d.extracted_path, d.extract_error FROM download d "
+                        + "WHERE d.download_status = 'IN_PROGRESS'" + watched,
+                rs -> {
+                    ProgressDelta delta = new ProgressDelta(rs.getLong(1), Download.DownloadStatus.valueOf(rs.getString(2)),
+                            rs.getLong(3), rs.getLong(4), rs.getInt(5), 0, new ArrayList<>());
+                    delta.setFileName(rs.getString(6));
+                    delta.setHost(rs.getString(7));
+                    delta.setErrorMessage(rs.getString(8));
+                    delta.setExtract(rs.getBoolean(9));
+                    delta.setExtractedPath(rs.getString(10));
+                    delta.setExtractError(rs.getString(11));
+                    deltas.put(delta.getId(), delta);
+                }, downloadIds.toArray());
+        if (!deltas.isEmpty()) {
+            jdbcTemplate.query("SELECT p.download_id, p.id, p.start_byte, p.end_byte, p.downloaded_bytes FROM download_part p "
+                            + "WHERE p.download_id IN (" + placeholders(deltas.size()) + ") ORDER BY p.start_byte",
+                    rs -> {
+                        deltas.get(rs.getLong(1)).getParts().add(new ProgressDelta.PartDelta(rs.getLong(2), rs.getLong(3),
+                                rs.getLong(4), rs.getLong(5)));
+                    }, deltas.keySet().toArray());
+        }
+        return new ArrayList<>(deltas.values());
+    }
+
+    /**
+     * Sets the status of a queued or running download, so a node never overrides a pause or
+     * an outcome another node wrote meanwhile.
+     *
+     * @return false if the download is no longer queued or running
+     */
+    boolean markStatus(Long id, Download.DownloadStatus status, String errorMessage) {
+        return jdbcTemplate.update("UPDATE download d SET download_status = ?, error_message = ? WHERE d.id = ? AND " + RUNNABLE,
+                status.name(), errorMessage, id) == 1;
+    }
+
+    /**
+     * Drops the offsets and validators of a download whose file changed on the server.
+     */
+    void resetProgress(Long id) {
+        jdbcTemplate.update("UPDATE download_part SET downloaded_bytes = 0, digest = NULL WHERE download_id = ?", id);
+        jdbcTemplate.update("UPDATE download SET downloaded_size = 0, progress = 0, etag = NULL, last_modified = NULL WHERE id = ?", id);
+    }
+
+    /**
+     * Drops the leases a cluster left in the database, for a single node that owns all rows.
+     */
+    void clear() {
+        int parts = jdbcTemplate.update("UPDATE download_part SET lease_owner = NULL, lease_expires = 0 WHERE lease_owner IS NOT NULL");
+        int downloads = jdbcTemplate.update("UPDATE download SET lease_owner = NULL, lease_expires = 0 WHERE lease_owner IS NOT NULL");
+        if (parts + downloads > 0) {
+            log.info("Dropped {} part and {} download leases left by a cluster", parts, downloads);
+        }
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.downloader.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a node of a cluster of download managers sharing one database and one download
+ * directory. Every {@code download.cluster.poll-ms} a worker node claims stored downloads to
+ * probe, queues downloads with parts it can claim, up to {@code max-claims} at a time, and
+ * finishes downloads whose parts are all written. Every {@code heartbeat-ms} it renews its
+ * leases, checkpoints the offsets of its running parts to the database and stops the runs of
+ * downloads that were paused elsewhere or that lost a part to another node.
+ * <p>
+ * Nodes in the {@code api} role only accept and serve downloads, they never claim any.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ClusterWorker {
+
+    private final ClusterLeases clusterLeases;
+    private final DownloadService downloadService;
+    private final ProgressJournal progressJournal;
+    private final DownloadMetrics downloadMetrics;
+
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "cluster-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${download.cluster.heartbeat-ms:5000}")
+    private long heartbeatMs;
+
+    @Value("${download.cluster.poll-ms:1000}")
+    private long pollMs;
+
+    @Value("${download.cluster.max-claims:16}")
+    private int maxClaims;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!clusterLeases.isEnabled()) {
+            return;
+        }
+        timer.scheduleWithFixedDelay(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        if (clusterLeases.runsDownloads()) {
+            timer.scheduleWithFixedDelay(this::poll, 0, pollMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        timer.shutdownNow();
+    }
+
+    private void heartbeat() {
+        try {
+            clusterLeases.renew();
+            List<Long> partIds = progressJournal.getActive().stream()
+                    .flatMap(progress -> progress.partIds().stream())
+                    .toList();
+            for (Long id : clusterLeases.lostParts(partIds)) {
+                DownloadProgress progress = progressJournal.get(id);
+                if (progress != null && !progress.isFenced()) {
+                    log.warn("Download {} lost a part lease on {}, stopping its workers", id, clusterLeases.getNodeId());
+                    downloadMetrics.clusterLeaseLost();
+                    progress.fence();
+                }
+            }
+            progressJournal.checkpoint();
+            for (Long id : clusterLeases.stoppedDownloads(downloadService.getClusterRuns())) {
+                downloadService.stopClaimed(id);
+            }
+        } catch (Exception e) {
+            log.error("Cluster heartbeat failed: " + e.getMessage(), e);
+        }
+    }
+
+    private void poll() {
+        try {
+            for (Map.Entry<Long, String> unprobed : clusterLeases.findUnprobed(maxClaims).entrySet()) {
+                downloadService.probeLater(unprobed.getKey(), unprobed.getValue());
+            }
+            Set<Long> runs = downloadService.getClusterRuns();
+            int free = maxClaims - runs.size();
+            if (free > 0) {
+                for (Long id : clusterLeases.findClaimable(free + runs.size())) {
+                    if (!runs.contains(id) && free-- > 0) {
+                        downloadService.runClaimed(id);
+                    }
+                }
+            }
+            for (Long id : clusterLeases.findFinalizable(maxClaims)) {
+                if (!runs.contains(id)) {
+                    downloadService.finalizeClaimed(id);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Cluster poll failed: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.downloader.service;
+
+import com.downloader.dto.BatchProgress;
+import com.downloader.dto.BatchSubmission;
+import com.downloader.dto.DownloadRequest;
+import com.downloader.model.Download;
+import com.downloader.model.DownloadBatch;
+import com.downloader.model.UrlListConverter;
+import com.downloader.repository.DownloadBatchRepository;
+import com.downloader.repository.DownloadRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ingests manifests of many downloads at once. The manifest is parsed line by line and all
+ * accepted entries are stored as PENDING downloads with JDBC batch inserts in one transaction,
+ * without touching the network. Probing the URLs and queueing the downloads happens afterwards
+ * on the scheduler's probe executor, so the time to submit a batch does not depend on how fast
+ * the origins answer.
+ */
+@Service
+@Slf4j
+public class DownloadBatchService {
+
+    private static final String INSERT_DOWNLOAD_SQL = "INSERT INTO download (url, host, file_name, thread_count, write_engine, "
+            + "priority, max_bytes_per_second, checksum_algorithm, expected_checksum, mirrors, extract, batch_id, "
+            + "start_time, download_status, total_size, downloaded_size, progress, split_count, adaptive, from_cache) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, 0, 0, 0, FALSE, FALSE)";
+    private static final int INSERT_BATCH_SIZE = 500;
+    private static final int MAX_REPORTED_ERRORS = 100;
+    private static final UrlListConverter MIRRORS = new UrlListConverter();
+
+    private final DownloadBatchRepository downloadBatchRepository;
+    private final DownloadRepository downloadRepository;
+    private final DownloadService downloadService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+    private final ManifestParser manifestParser;
+    private final ProgressJournal progressJournal;
+
+    @Value("${download.batch.max-entries:10000}")
+    private int maxEntries;
+
+    public DownloadBatchService(DownloadBatchRepository downloadBatchRepository, DownloadRepository downloadRepository,
+                                DownloadService downloadService, JdbcTemplate jdbcTemplate,
+                                TransactionTemplate transactionTemplate, EntityManagerFactory entityManagerFactory,
+                                ObjectMapper objectMapper, ProgressJournal progressJournal) {
+        this.downloadBatchRepository = downloadBatchRepository;
+        this.downloadRepository = downloadRepository;
+        this.downloadService = downloadService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+        this.manifestParser = new ManifestParser(objectMapper);
+        this.progressJournal = progressJournal;
+    }
+
+    /**
+     * Stores the downloads of a manifest and schedules their probes. Invalid lines are skipped
+     * and reported. Nothing is stored if no line is valid or the manifest has more than
+     * {@code download.batch.max-entries} entries; the returned batch id is null then.
+     */
+    public BatchSubmission submit(String name, InputStream manifest) throws IOException {
+        BatchSubmission submission = new BatchSubmission(null, 0, 0, new ArrayList<>());
+        DownloadBatch batch;
+        try {
+            batch = transactionTemplate.execute(status -> {
+                DownloadBatch created = new DownloadBatch();
+                created.setName(name);
+                created.setCreatedAt(LocalDateTime.now());
+                downloadBatchRepository.save(created);
+                int accepted = insertEntries(created, manifest, submission);
+                if (accepted == 0 || accepted > maxEntries) {
+                    status.setRollbackOnly();
+                    return null;
+                }
+                created.setEntries(accepted);
+                return created;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (batch == null) {
+            if (submission.getAccepted() > maxEntries) {
+                submission.getErrors().add(0, "Manifest has more than " + maxEntries + " entries");
+            }
+            submission.setAccepted(0);
+            return submission;
+        }
+
+        // The inserts bypass Hibernate, cached download listings no longer hold
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictDefaultQueryRegion();
+        submission.setBatchId(batch.getId());
+        List<Object[]> entries = downloadRepository.findIdsAndHostsByBatchId(batch.getId());
+        entries.forEach(entry -> downloadService.probeLater((Long) entry[0], (String) entry[1]));
+        log.info("Batch {} submitted with {} downloads, {} lines rejected", batch.getId(), entries.size(), submission.getRejected());
+        return submission;
+    }
+
+    // Returns the number of accepted entries, stops reading once there are too many
+    private int insertEntries(DownloadBatch batch, InputStream manifest, BatchSubmission submission) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Object[]> rows = new ArrayList<>(INSERT_BATCH_SIZE);
+        int lineNumber = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(manifest, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                DownloadRequest request;
+                try {
+                    request = manifestParser.parse(line);
+                } catch (IllegalArgumentException e) {
+                    submission.setRejected(submission.getRejected() + 1);
+                    if (submission.getErrors().size() < MAX_REPORTED_ERRORS) {
+                        submission.getErrors().add("line " + lineNumber + ": " + e.getMessage());
+                    }
+                    continue;
+                }
+                if (request == null) {
+                    continue;
+                }
+                submission.setAccepted(submission.getAccepted() + 1);
+                if (submission.getAccepted() > maxEntries) {
+                    return submission.getAccepted();
+                }
+                rows.add(toRow(batch, request, now));
+                if (rows.size() == INSERT_BATCH_SIZE) {
+                    jdbcTemplate.batchUpdate(INSERT_DOWNLOAD_SQL, rows);
+                    rows.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_DOWNLOAD_SQL, rows);
+        }
+        return submission.getAccepted();
+    }
+
+    // Only what the manifest asked for, the probe fills in the name, size and validators and checks the mirrors
+    private static Object[] toRow(DownloadBatch batch, DownloadRequest request, LocalDateTime now) {
+        Checksum checksum = request.getChecksum() != null && !request.getChecksum().isBlank()
+                ? Checksum.parse(request.getChecksum())
+                : null;
+        String fileName = request.getFileName() != null && !request.getFileName().isBlank() ? request.getFileName() : null;
+        String engine = request.getEngine() != null && !request.getEngine().isBlank() ? request.getEngine() : null;
+        return new Object[]{
+                request.getUrl(),
+                DownloadScheduler.hostOf(request.getUrl()),
+                fileName,
+                request.getThreadCount() != null ? Math.max(0, request.getThreadCount()) : 0,
+                engine,
+                request.getPriority() != null ? request.getPriority() : 0,
+                request.getMaxBytesPerSecond() != null ? Math.max(0, request.getMaxBytesPerSecond()) : 0L,
+                checksum != null ? checksum.algorithm() : null,
+                checksum != null ? checksum.hex() : null,
+                MIRRORS.convertToDatabaseColumn(request.getMirrors()),
+                Boolean.TRUE.equals(request.getExtract()),
+                batch.getId(),
+                now,
+                Download.DownloadStatus.PENDING.name()
+        };
+    }
+
+    /**
+     * Aggregate progress of a batch, or null if there is no such batch.
+     */
+    public BatchProgress getProgress(Long id) {
+        DownloadBatch batch = downloadBatchRepository.findById(id).orElse(null);
+        if (batch == null) {
+            return null;
+        }
+        BatchProgress progress = new BatchProgress();
+        progress.setId(batch.getId());
+        progress.setName(batch.getName());
+        progress.setCreatedAt(batch.getCreatedAt());
+        progress.setEntries(batch.getEntries());
+        long totalSize = 0;
+        long downloadedSize = 0;
+        for (Object[] row : downloadRepository.summarizeBatch(id)) {
+            Download.DownloadStatus status = (Download.DownloadStatus) row[0];
+            progress.getStatusCounts().put(status, ((Number) row[1]).longValue());
+            totalSize += ((Number) row[2]).longValue();
+            downloadedSize += ((Number) row[3]).longValue();
+            if (status == Download.DownloadStatus.PENDING) {
+                progress.setAwaitingProbe(((Number) row[4]).longValue());
+            }
+        }
+        // Running downloads write their progress to the rows only when they stop
+        for (DownloadProgress running : progressJournal.getActive()) {
+            if (id.equals(running.getDownload().getBatchId())) {
+                downloadedSize += running.getUnpersistedBytes();
+            }
+        }
+        progress.setTotalSize(totalSize);
+        progress.setDownloadedSize(downloadedSize);
+        progress.setProgress(totalSize > 0 ? (int) (downloadedSize * 100 / totalSize) : 0);
+        return progress;
+    }
+}
@@ -0,0 +1,210 @@
+package com.downloader.service;
+
+import com.downloader.model.CacheEntry;
+import com.downloader.model.Download;
+import com.downloader.repository.CacheEntryRepository;
+import com.downloader.transport.ProbeResult;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Content-addressed cache of completed downloads. Every verified file is hard-linked into
+ * {@code download.cache.location} under its checksum, so identical content from different
+ * URLs is kept once, and a later request for a cached URL (revalidated with
+ * {@code If-None-Match}/{@code If-Modified-Since}) or for a known checksum is served by
+ * linking the blob to the new file name instead of downloading it again.
+ * <p>
+ * Blobs are evicted least recently used first once they add up to more than
+ * {@code download.cache.max-size-bytes}. Files of completed downloads are links of their own,
+ * so evicting a blob never removes a downloaded file; its space is reclaimed once those files
+ * are gone too.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class DownloadCache {
+
+    private final CacheEntryRepository cacheEntryRepository;
+
+    @Value("${download.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${download.cache.location:${download.storage.location:downloads}/.cache}")
+    private String location;
+
+    @Value("${download.cache.max-size-bytes:10737418240}") // 10GB default
+    private long maxSizeBytes;
+
+    @Value("${download.cache.fresh-for-ms:0}") // Revalidate every hit by default
+    private long freshForMs;
+
+    /**
+     * Cache entry of a URL whose blob is still on disk, or {@code null}.
+     */
+    public CacheEntry lookup(String url) {
+        if (!enabled) {
+            return null;
+        }
+        return cacheEntryRepository.findFirstByUrl(url).filter(this::blobExists).orElse(null);
+    }
+
+    /**
+     * Any cache entry holding content with the given checksum, or {@code null}.
+     */
+    public CacheEntry lookup(Checksum checksum) {
+        if (!enabled) {
+            return null;
+        }
+        return cacheEntryRepository.findByChecksum(checksum.hex()).stream()
+                .filter(entry -> checksum.algorithm().equals(entry.getChecksumAlgorithm()))
+                .filter(this::blobExists)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Whether an entry was validated recently enough to be used without asking the server.
+     */
+    public boolean isFresh(CacheEntry entry) {
+        return freshForMs > 0 && entry.getValidatedAt() != null
+                && entry.getValidatedAt().plusNanos(freshForMs * 1_000_000).isAfter(LocalDateTime.now());
+    }
+
+    /**
+     * Whether a conditional probe shows the remote file is still the cached version. Servers
+     * that ignore the conditional headers are checked against the validators themselves.
+     */
+    public boolean isStillValid(CacheEntry entry, ProbeResult probe) {
+        if (probe.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return entry.getEtag() != null || entry.getLastModified() != null;
+        }
+        if (probe.getStatusCode() != HttpURLConnection.HTTP_OK || probe.getContentLength() != entry.getSize()) {
+            return false;
+        }
+        if (entry.getEtag() != null) {
+            // Weak validators don't promise identical bytes
+            return !entry.getEtag().startsWith("W/") && entry.getEtag().equals(probe.getEtag());
+        }
+        return entry.getLastModified() != null && entry.getLastModified().equals(probe.getLastModified());
+    }
+
+    /**
+     * Puts the cached content at {@code target} and counts the hit.
+     */
+    public synchronized void materialize(CacheEntry entry, Path target, boolean revalidated) throws IOException {
+        link(blobPath(entry.getChecksumAlgorithm(), entry.getChecksum()), target);
+        LocalDateTime now = LocalDateTime.now();
+        entry.setHits(entry.getHits() + 1);
+        entry.setLastAccessed(now);
+        if (revalidated) {
+            entry.setValidatedAt(now);
+        }
+        cacheEntryRepository.save(entry);
+    }
+
+    /**
+     * Adds a completed download with a known checksum. If the same content is cached already
+     * the download's file is replaced by a link to it.
+     */
+    public synchronized void store(Download download) {
+        if (!enabled || download.getChecksum() == null) {
+            return;
+        }
+        try {
+            String algorithm = download.getChecksumAlgorithm() != null ? download.getChecksumAlgorithm() : Checksum.SHA_256;
+            Path file = Paths.get(download.getFilePath());
+            Path blob = blobPath(algorithm, download.getChecksum());
+            Files.createDirectories(blob.getParent());
+            if (!Files.exists(blob)) {
+                link(file, blob);
+            } else if (!Files.isSameFile(blob, file)) {
+                Path replacement = file.resolveSibling(file.getFileName() + ".cache-link");
+                link(blob, replacement);
+                Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.info("Download {} has the same content as a cached file, keeping one copy", download.getId());
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            CacheEntry entry = cacheEntryRepository.findFirstByUrl(download.getUrl()).orElseGet(CacheEntry::new);
+            entry.setUrl(download.getUrl());
+            entry.setEtag(download.getEtag());
+            entry.setLastModified(download.getLastModified());
+            entry.setChecksumAlgorithm(algorithm);
+            entry.setChecksum(download.getChecksum());
+            entry.setSize(download.getTotalSize());
+            entry.setValidatedAt(now);
+            entry.setLastAccessed(now);
+            cacheEntryRepository.save(entry);
+            evict();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not cache download {}: {}", download.getId(), e.getMessage());
+        }
+    }
+
+    private void evict() throws IOException {
+        Map<Path, List<CacheEntry>> blobs = cacheEntryRepository.findAll().stream()
+                .collect(Collectors.groupingBy(entry -> blobPath(entry.getChecksumAlgorithm(), entry.getChecksum())));
+        long total = blobs.values().stream().mapToLong(entries -> entries.get(0).getSize()).sum();
+        if (total <= maxSizeBytes) {
+            return;
+        }
+        List<Map.Entry<Path, List<CacheEntry>>> lru = new ArrayList<>(blobs.entrySet());
+        lru.sort(Comparator.comparing(blob -> blob.getValue().stream()
+                .map(CacheEntry::getLastAccessed)
+                .filter(Objects::nonNull)
+                .max(Comparator.naturalOrder())
+                .orElse(LocalDateTime.MIN)));
+        for (Map.Entry<Path, List<CacheEntry>> blob : lru) {
+            if (total <= maxSizeBytes) {
+                break;
+            }
+            Files.deleteIfExists(blob.getKey());
+            cacheEntryRepository.deleteAll(blob.getValue());
+            total -= blob.getValue().get(0).getSize();
+            log.info("Evicted {} from the download cache", blob.getKey().getFileName());
+        }
+    }
+
+    private boolean blobExists(CacheEntry entry) {
+        if (Files.exists(blobPath(entry.getChecksumAlgorithm(), entry.getChecksum()))) {
+            return true;
+        }
+        // Removed from disk behind our back
+        cacheEntryRepository.delete(entry);
+        return false;
+    }
+
+    private Path blobPath(String algorithm, String checksum) {
+        return Paths.get(location, algorithm.toLowerCase(Locale.ROOT).replace("-", "") + "-" + checksum);
+    }
+
+    // Hard link, or a copy where the file system can't link the two paths
+    private static void link(Path existing, Path link) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(existing, link, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+}
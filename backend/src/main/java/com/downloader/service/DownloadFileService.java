@@ -0,0 +1,102 @@
+package com.downloader.service;
+
+import com.downloader.model.Download;
+import com.downloader.repository.DownloadRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves the file behind a download for serving. Metadata of completed downloads (length,
+ * content type, validators) never changes, so it is kept in an LRU map of
+ * {@code download.serve.metadata-cache-size} entries and repeat requests skip the database.
+ */
+@Service
+@RequiredArgsConstructor
+public class DownloadFileService {
+
+    private final DownloadRepository downloadRepository;
+    private final ProgressJournal progressJournal;
+
+    @Value("${download.serve.metadata-cache-size:1024}")
+    private int metadataCacheSize;
+
+    private Map<Long, ServedFile> metadata;
+
+    @PostConstruct
+    void start() {
+        metadata = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ServedFile> eldest) {
+                return size() > metadataCacheSize;
+            }
+        });
+    }
+
+    /**
+     * The file to serve for a download, or {@code null} if there is no such download or no
+     * bytes of it are on disk yet.
+     */
+    public ServedFile resolve(Long id) throws IOException {
+        ServedFile cached = metadata.get(id);
+        if (cached != null) {
+            return cached;
+        }
+
+        DownloadProgress progress = progressJournal.get(id);
+        if (progress != null) {
+            return partial(progress.getDownload(), progress.getContiguousPrefix());
+        }
+        Download download = downloadRepository.findById(id).orElse(null);
+        if (download == null || download.getFilePath() == null) {
+            return null;
+        }
+        if (download.getDownloadStatus() != Download.DownloadStatus.COMPLETED) {
+            return partial(download, DownloadProgress.contiguousPrefix(download));
+        }
+
+        Path path = Paths.get(download.getFilePath());
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        long length = Files.size(path);
+        // Whole seconds, that is all Last-Modified can carry
+        long lastModified = Files.getLastModifiedTime(path).toMillis() / 1000 * 1000;
+        String etag = download.getChecksum() != null
+                ? "\"" + download.getChecksum() + "\""
+                : "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        ServedFile file = new ServedFile(id, path, download.getFileName(), contentType(path), length, etag, lastModified, true);
+        metadata.put(id, file);
+        return file;
+    }
+
+    /**
+     * Drops cached metadata, for example after the file turned out to be gone.
+     */
+    public void evict(Long id) {
+        metadata.remove(id);
+    }
+
+    private ServedFile partial(Download download, long prefix) throws IOException {
+        Path path = Paths.get(download.getFilePath());
+        if (prefix <= 0 || !Files.isRegularFile(path)) {
+            return null;
+        }
+        return new ServedFile(download.getId(), path, download.getFileName(), contentType(path), prefix, null, -1, false);
+    }
+
+    private static String contentType(Path path) throws IOException {
+        String contentType = Files.probeContentType(path);
+        return contentType != null ? contentType : MimeTypeUtils.APPLICATION_OCTET_STREAM_VALUE;
+    }
+}
@@ -0,0 +1,197 @@
+package com.downloader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the download engine, scraped from {@code /actuator/prometheus}.
+ * Byte counters are per download and per host, so {@code rate()} gives the throughput of
+ * each. Timers split the time of a slow download between the network (time to first byte),
+ * the disk (segment writes), the database (progress flushes; repository calls are timed by
+ * Spring Data as {@code spring.data.repository.invocations}) and lock contention.
+ */
+@Component
+public class DownloadMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<Long, DownloadProgress> running = new ConcurrentHashMap<>();
+    private final Map<Long, Meter> downloadBytes = new ConcurrentHashMap<>();
+    private final Map<String, Counter> hostBytes = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timeToFirstByte = new ConcurrentHashMap<>();
+    private final Map<String, Timer> diskWrites = new ConcurrentHashMap<>();
+    private final Timer progressFlush;
+    private final Timer lockWait;
+
+    public DownloadMetrics(MeterRegistry registry, DownloadScheduler downloadScheduler) {
+        this.registry = registry;
+        Gauge.builder("download.active", downloadScheduler, scheduler -> scheduler.getStats().getActiveDownloads())
+                .description("Downloads holding connections")
+                .register(registry);
+        Gauge.builder("download.queued", downloadScheduler, scheduler -> scheduler.getStats().getQueueDepth())
+                .description("Downloads waiting for connections")
+                .register(registry);
+        Gauge.builder("download.connections", downloadScheduler, scheduler -> scheduler.getStats().getActiveConnections())
+                .description("Connections leased to running downloads")
+                .register(registry);
+        Gauge.builder("download.workers", running, map -> map.values().stream().mapToInt(DownloadProgress::getWorkers).sum())
+                .description("Part workers running")
+                .register(registry);
+        progressFlush = Timer.builder("download.progress.flush")
+                .description("Progress log commits and the database writes of stopped downloads")
+                .register(registry);
+        lockWait = Timer.builder("download.lock.wait")
+                .description("Time part workers wait for the lock on their download")
+                .register(registry);
+    }
+
+    /**
+     * Starts the per download byte counter. Removed again by {@link #unregister(DownloadProgress)}
+     * so finished downloads don't pile up as series.
+     */
+    public void register(DownloadProgress progress) {
+        Long id = progress.getDownload().getId();
+        running.put(id, progress);
+        downloadBytes.computeIfAbsent(id, key -> FunctionCounter.builder("download.bytes", progress, DownloadProgress::getDownloadedSize)
+                .baseUnit("bytes")
+                .description("Bytes received by a running download")
+                .tags("download", String.valueOf(id), "host", String.valueOf(progress.getDownload().getHost()))
+                .register(registry));
+    }
+
+    public void unregister(DownloadProgress progress) {
+        Long id = progress.getDownload().getId();
+        running.remove(id, progress);
+        Meter meter = downloadBytes.remove(id);
+        if (meter != null) {
+            registry.remove(meter);
+        }
+    }
+
+    /**
+     * Counter of bytes received from a host. Looked up once per connection, not per chunk.
+     */
+    public Counter hostBytes(String host) {
+        return hostBytes.computeIfAbsent(String.valueOf(host), key -> Counter.builder("download.host.bytes")
+                .baseUnit("bytes")
+                .description("Bytes received per host")
+                .tag("host", key)
+                .register(registry));
+    }
+
+    public void recordTimeToFirstByte(String host, long nanos) {
+        timeToFirstByte.computeIfAbsent(String.valueOf(host), key -> Timer.builder("download.ttfb")
+                        .description("Time from sending a range request to its response headers")
+                        .tag("host", key)
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Timer diskWrite(String engine) {
+        return diskWrites.computeIfAbsent(engine, key -> Timer.builder("download.disk.write")
+                .description("Latency of writing one chunk to the output file")
+                .tag("engine", key)
+                .register(registry));
+    }
+
+    public void recordProgressFlush(long nanos) {
+        progressFlush.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLockWait(long nanos) {
+        lockWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a failed part request that will be retried, by {@link #cause(IOException, String)}.
+     */
+    public void retry(String cause) {
+        registry.counter("download.part.retries", "cause", cause).increment();
+    }
+
+    /**
+     * Counts a part that ran out of retries.
+     */
+    public void partFailed(String cause) {
+        registry.counter("download.part.failures", "cause", cause).increment();
+    }
+
+    /**
+     * Records one extraction by archive format and outcome: how long it took from its first
+     * byte, the archive bytes it read, the bytes it wrote and how long it waited for the
+     * download to write more. Bytes over time is the extraction throughput.
+     */
+    public void extraction(String format, String outcome, long nanos, long archiveBytes, long extractedBytes, long waitNanos) {
+        registry.timer("download.extract", "format", format, "outcome", outcome).record(nanos, TimeUnit.NANOSECONDS);
+        registry.counter("download.extract.read.bytes", "format", format).increment(archiveBytes);
+        registry.counter("download.extract.written.bytes", "format", format).increment(extractedBytes);
+        registry.timer("download.extract.wait", "format", format).record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a small file fetched together with its probe ({@code fetched}), or that broke off
+     * and went on as a regular download ({@code fallback}).
+     */
+    public void smallFile(String outcome) {
+        registry.counter("download.small.files", "outcome", outcome).increment();
+    }
+
+    /**
+     * Counts a download that ended as FAILED, by a short reason such as {@code checksum}.
+     */
+    public void downloadFailed(String reason) {
+        registry.counter("download.failures", "reason", reason).increment();
+    }
+
+    /**
+     * Counts leases this node claimed on parts ({@code part}) or whole downloads ({@code download}).
+     */
+    public void clusterClaims(String kind, int count) {
+        registry.counter("download.cluster.claims", "kind", kind).increment(count);
+    }
+
+    /**
+     * Counts running downloads stopped on this node because another node took over one of its parts.
+     */
+    public void clusterLeaseLost() {
+        registry.counter("download.cluster.leases.lost").increment();
+    }
+
+    /**
+     * Short, bounded cause of a failed part request for use as a tag.
+     */
+    public static String cause(IOException error, String abortReason) {
+        if (abortReason != null) {
+            return "stall";
+        }
+        if (error instanceof MirrorSet.SlowMirrorException) {
+            return "slow_mirror";
+        }
+        if (error instanceof HttpStatusException statusError) {
+            return "http_" + statusError.getStatusCode();
+        }
+        if (error instanceof SocketTimeoutException || error instanceof HttpTimeoutException) {
+            return "timeout";
+        }
+        if (error instanceof ConnectException) {
+            return "connect";
+        }
+        if (error instanceof FileNotFoundException) {
+            return "not_found";
+        }
+        return "io";
+    }
+}
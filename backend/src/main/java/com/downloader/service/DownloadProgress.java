@@ -0,0 +1,407 @@
+package com.downloader.service;
+
+import com.downloader.model.Download;
+import com.downloader.model.DownloadPart;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory progress of a running {@link Download}. The total is a {@link LongAdder} so that
+ * all part threads of a download can report bytes without sharing a lock.
+ */
+public class DownloadProgress {
+
+    private final Download download;
+    private final LongAdder downloadedSize = new LongAdder();
+    // Downloaded size in the database, which only gets the new size when the download stops
+    private final long persistedSize;
+    private final Map<Long, PartProgress> parts = new ConcurrentHashMap<>();
+    private final AtomicInteger splitCount;
+    private final int persistedSplits;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private volatile boolean pauseRequested;
+    private volatile boolean stale;
+    private volatile boolean failed;
+    // Another cluster node took over a part of this run
+    private volatile boolean fenced;
+    // Persist only the part offsets forced to disk, set for writers with checkpoints
+    private volatile boolean checkpointed;
+    // Source URLs the part workers connect to, set when the download starts
+    private volatile MirrorSet mirrors;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    // Running part workers, and how many the SegmentTuner wants (0 while it doesn't steer)
+    private final AtomicInteger workers = new AtomicInteger();
+    private final AtomicInteger retiring = new AtomicInteger();
+    private volatile int targetWorkers;
+    // Inputs of the SegmentTuner
+    private final AtomicInteger connectionErrors = new AtomicInteger();
+    private final LongAdder timeToFirstByteNanos = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+
+    DownloadProgress(Download download) {
+        this(download, download.getParts());
+    }
+
+    /**
+     * Progress of a run over some of the download's parts, the ones a cluster node claimed.
+     */
+    DownloadProgress(Download download, Collection<DownloadPart> runParts) {
+        this.download = download;
+        this.downloadedSize.add(download.getDownloadedSize());
+        this.persistedSize = download.getDownloadedSize();
+        this.splitCount = new AtomicInteger(download.getSplitCount());
+        this.persistedSplits = download.getSplitCount();
+        for (DownloadPart part : runParts) {
+            parts.put(part.getId(), new PartProgress(part));
+        }
+    }
+
+    public Download getDownload() {
+        return download;
+    }
+
+    public long getDownloadedSize() {
+        return downloadedSize.sum();
+    }
+
+    public int getPercent() {
+        long total = download.getTotalSize();
+        return total > 0 ? (int) ((getDownloadedSize() * 100) / total) : 0;
+    }
+
+    public int getSplitCount() {
+        return splitCount.get();
+    }
+
+    /**
+     * Splits made in this run that the database doesn't count yet.
+     */
+    int getUnpersistedSplits() {
+        return getSplitCount() - persistedSplits;
+    }
+
+    /**
+     * Bytes downloaded in this run that the database doesn't count yet.
+     */
+    public long getUnpersistedBytes() {
+        return getDownloadedSize() - persistedSize;
+    }
+
+    /**
+     * Copies the live counters onto a copy of the download read from the database, whose
+     * progress columns are only written when the download stops.
+     */
+    public void applyTo(Download copy) {
+        copy.setDownloadedSize(getDownloadedSize());
+        copy.setProgress(getPercent());
+        copy.setSplitCount(getSplitCount());
+        copy.getParts().forEach(this::applyTo);
+    }
+
+    public void applyTo(DownloadPart copy) {
+        PartProgress part = parts.get(copy.getId());
+        if (part != null) {
+            copy.setDownloadedBytes(part.getDownloadedBytes());
+            copy.setEndByte(part.getEndByte());
+            copy.setAttempts(part.getAttempts());
+            copy.setLastError(part.getLastError());
+        }
+    }
+
+    /**
+     * Asks the part workers to stop after their current chunk. Offsets are flushed as each
+     * worker exits, so a later resume continues exactly where they stopped.
+     */
+    public void requestPause() {
+        pauseRequested = true;
+        stopped.countDown();
+    }
+
+    public boolean isPauseRequested() {
+        return pauseRequested;
+    }
+
+    void setCheckpointed(boolean checkpointed) {
+        this.checkpointed = checkpointed;
+    }
+
+    boolean isCheckpointed() {
+        return checkpointed;
+    }
+
+    void setMirrors(MirrorSet mirrors) {
+        this.mirrors = mirrors;
+    }
+
+    MirrorSet getMirrors() {
+        return mirrors;
+    }
+
+    /**
+     * Marks the bytes on disk as belonging to an older version of the remote file, detected
+     * through a failed {@code If-Range} check. Stops all part workers like a pause.
+     */
+    void markStale() {
+        stale = true;
+        stopped.countDown();
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Marks the download as failed after a part ran out of retries. The other workers stop
+     * instead of fetching bytes for a download that can no longer complete.
+     */
+    void markFailed() {
+        failed = true;
+        stopped.countDown();
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Stops the part workers of a cluster node that lost the lease on one of its parts, e.g.
+     * after missing heartbeats. The node that took over continues from the persisted offsets.
+     */
+    void fence() {
+        fenced = true;
+        stopped.countDown();
+    }
+
+    public boolean isFenced() {
+        return fenced;
+    }
+
+    public boolean isStopping() {
+        return pauseRequested || stale || failed || fenced;
+    }
+
+    /**
+     * Waits for up to {@code millis}, returning early with true if the download is stopping.
+     * Used for retry backoff so a pause doesn't wait out the delay.
+     */
+    boolean awaitStop(long millis) throws InterruptedException {
+        return stopped.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isFinished() {
+        return parts.values().stream().allMatch(PartProgress::isFinished);
+    }
+
+    /**
+     * End of the bytes written without a gap from the start of the file.
+     */
+    public long getContiguousPrefix() {
+        List<PartProgress> sorted = new ArrayList<>(parts.values());
+        sorted.sort(Comparator.comparingLong(part -> part.getPart().getStartByte()));
+        long prefix = 0;
+        for (PartProgress part : sorted) {
+            if (part.getPart().getStartByte() != prefix) {
+                break;
+            }
+            prefix = part.getPosition();
+            if (prefix <= part.getEndByte()) {
+                break;
+            }
+        }
+        return Math.min(prefix, download.getTotalSize());
+    }
+
+    /**
+     * {@link #getContiguousPrefix()} of a download that is not running, from its persisted parts.
+     */
+    public static long contiguousPrefix(Download download) {
+        List<DownloadPart> sorted = new ArrayList<>(download.getParts());
+        sorted.sort(Comparator.comparingLong(DownloadPart::getStartByte));
+        long prefix = 0;
+        for (DownloadPart part : sorted) {
+            if (part.getStartByte() != prefix) {
+                break;
+            }
+            prefix = part.getStartByte() + part.getDownloadedBytes();
+            if (prefix <= part.getEndByte()) {
+                break;
+            }
+        }
+        return Math.min(prefix, download.getTotalSize());
+    }
+
+    void startWorkers(int count) {
+        workers.set(count);
+    }
+
+    public int getWorkers() {
+        return workers.get();
+    }
+
+    public int getTargetWorkers() {
+        return targetWorkers;
+    }
+
+    void setTargetWorkers(int targetWorkers) {
+        this.targetWorkers = targetWorkers;
+    }
+
+    /**
+     * Counts in one more worker. Fails once the last worker has exited, the download is then
+     * already being wrapped up.
+     */
+    boolean addWorker() {
+        while (true) {
+            int count = workers.get();
+            if (count == 0 || isStopping()) {
+                return false;
+            }
+            if (workers.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Lets one worker retire while more are running than the SegmentTuner wants. The worker
+     * hands its part back and then exits through {@link #exitWorker(boolean)}.
+     */
+    boolean reserveRetirement() {
+        while (true) {
+            int target = targetWorkers;
+            int pending = retiring.get();
+            if (target <= 0 || workers.get() - pending <= target) {
+                return false;
+            }
+            if (retiring.compareAndSet(pending, pending + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Counts out a worker that ran out of parts or retired.
+     *
+     * @return the workers left, or -1 if this was the last one but a retiring worker handed a
+     * part back in the meantime and the caller has to keep going
+     */
+    int exitWorker(boolean retired) {
+        if (retired) {
+            retiring.decrementAndGet();
+        }
+        int left = workers.decrementAndGet();
+        if (left > 0 || isStopping() || !hasUnownedPart()) {
+            return left;
+        }
+        // Nothing else can add a worker once the count hit zero
+        workers.incrementAndGet();
+        return -1;
+    }
+
+    private boolean hasUnownedPart() {
+        return parts.values().stream().anyMatch(part -> !part.isFinished() && !part.isAssigned());
+    }
+
+    void connected(long timeToFirstByteNanos) {
+        this.timeToFirstByteNanos.add(timeToFirstByteNanos);
+        connections.increment();
+    }
+
+    /**
+     * Mean time from sending a range request to its response headers, 0 before the first.
+     */
+    public long getMeanTimeToFirstByteNanos() {
+        long count = connections.sum();
+        return count > 0 ? timeToFirstByteNanos.sum() / count : 0;
+    }
+
+    void connectionFailed() {
+        connectionErrors.incrementAndGet();
+    }
+
+    public int getConnectionErrors() {
+        return connectionErrors.get();
+    }
+
+    public PartProgress part(DownloadPart part) {
+        return parts.computeIfAbsent(part.getId(), id -> new PartProgress(part));
+    }
+
+    /**
+     * Returns the lowest unfinished part that no worker owns yet, or {@code null} when every
+     * part has a worker. A download can have more parts than granted connections, so workers
+     * pull parts from here before they start stealing.
+     */
+    PartProgress nextPart() {
+        List<PartProgress> unfinished = parts.values().stream()
+                .filter(part -> !part.isFinished())
+                .sorted(Comparator.comparingLong(part -> part.getPart().getStartByte()))
+                .toList();
+        for (PartProgress part : unfinished) {
+            if (part.assign()) {
+                return part;
+            }
+        }
+        return null;
+    }
+
+    Collection<PartProgress> parts() {
+        return parts.values();
+    }
+
+    Set<Long> partIds() {
+        return Set.copyOf(parts.keySet());
+    }
+
+    void add(PartProgress part, long bytes) {
+        part.add(bytes);
+        downloadedSize.add(bytes);
+        dirty.set(true);
+    }
+
+    /**
+     * Splits the part with the most unclaimed bytes left. Synchronized so that two idle
+     * workers never pick the same victim range.
+     *
+     * @return the stolen range, or {@code null} if no part has enough left to be worth splitting
+     */
+    synchronized PartProgress.Range steal(long minSplitSize) {
+        if (isStopping()) {
+            return null;
+        }
+        PartProgress victim = null;
+        long victimRemaining = 0;
+        for (PartProgress part : parts.values()) {
+            long remaining = part.getRemainingBytes();
+            if (remaining > victimRemaining) {
+                victim = part;
+                victimRemaining = remaining;
+            }
+        }
+        if (victim == null) {
+            return null;
+        }
+        PartProgress.Range stolen = victim.split(minSplitSize);
+        if (stolen != null) {
+            splitCount.incrementAndGet();
+            dirty.set(true);
+        }
+        return stolen;
+    }
+
+    boolean clearDirty() {
+        return dirty.getAndSet(false);
+    }
+}
@@ -0,0 +1,114 @@
+package com.downloader.service;
+
+import com.downloader.model.Download;
+import com.downloader.model.DownloadPart;
+import com.downloader.repository.DownloadRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks up downloads that a previous process left PENDING or IN_PROGRESS. Each download's part
+ * offsets are checked against the file on disk and the download is handed back to the
+ * scheduler, which keeps the usual connection caps so a restart doesn't flood the network.
+ * Batch entries that were never probed go back to the probe executor.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class DownloadRecovery {
+
+    private static final List<Download.DownloadStatus> UNFINISHED =
+            List.of(Download.DownloadStatus.PENDING, Download.DownloadStatus.IN_PROGRESS);
+
+    private final DownloadRepository downloadRepository;
+    private final DownloadService downloadService;
+    private final ClusterLeases clusterLeases;
+
+    @Value("${download.recovery.enabled:true}")
+    private boolean enabled;
+
+    @Value("${download.recovery.parallelism:2}")
+    private int parallelism;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        // In a cluster the parts of a stopped node are claimed again once its leases expire
+        if (!enabled || clusterLeases.isEnabled()) {
+            return;
+        }
+        List<Download> downloads = downloadRepository.findByDownloadStatusIn(UNFINISHED);
+        if (downloads.isEmpty()) {
+            return;
+        }
+        log.info("Recovering {} unfinished downloads", downloads.size());
+
+        // File checks run off the startup thread with bounded parallelism
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "download-recovery-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Download download : downloads) {
+            executor.execute(() -> recover(download));
+        }
+        executor.shutdown();
+    }
+
+    private void recover(Download download) {
+        try {
+            if (download.getParts().isEmpty() && download.getBatchId() != null
+                    && download.getDownloadStatus() == Download.DownloadStatus.PENDING) {
+                // A batch entry that was still waiting for its probe
+                downloadService.probeLater(download.getId(), download.getHost());
+                return;
+            }
+            if (download.getParts().isEmpty() || download.getFilePath() == null) {
+                download.setDownloadStatus(Download.DownloadStatus.FAILED);
+                download.setErrorMessage("Interrupted before the download was initialized");
+                downloadRepository.save(download);
+                return;
+            }
+            long verified = verifyOffsets(download);
+            log.info("Recovering download {} from {} of {} bytes", download.getId(), verified, download.getTotalSize());
+            downloadService.recoverDownload(download);
+        } catch (Exception e) {
+            log.error("Error recovering download " + download.getId() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Clamps each part's recorded offset to what the file can actually hold. Progress is only
+     * ever persisted after the bytes were written, so a full-length file keeps every offset;
+     * a missing or truncated file loses the parts past its end.
+     *
+     * @return the verified number of downloaded bytes
+     */
+    private long verifyOffsets(Download download) {
+        File file = new File(download.getFilePath());
+        long fileLength = file.exists() ? file.length() : 0;
+        long downloadedSize = 0;
+        for (DownloadPart part : download.getParts()) {
+            long available = Math.max(0, Math.min(part.getDownloadedBytes(), fileLength - part.getStartByte()));
+            if (available < part.getDownloadedBytes()) {
+                log.warn("Download {} part {}-{} truncated on disk, {} of {} bytes kept", download.getId(),
+                        part.getStartByte(), part.getEndByte(), available, part.getDownloadedBytes());
+                part.setDownloadedBytes(available);
+            }
+            downloadedSize += part.getDownloadedBytes();
+        }
+        download.setDownloadedSize(downloadedSize);
+        download.setProgress(download.getTotalSize() > 0 ? (int) ((downloadedSize * 100) / download.getTotalSize()) : 0);
+        return downloadedSize;
+    }
+}
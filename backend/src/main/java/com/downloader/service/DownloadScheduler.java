@@ -0,0 +1,256 @@
+package com.downloader.service;
+
+import com.downloader.dto.SchedulerStats;
+import com.downloader.model.Download;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Admission control for downloads. Submitted downloads wait in a priority queue as PENDING
+ * and are started once connections are free under both the global
+ * {@code download.scheduler.max-connections} cap and the per-host
+ * {@code download.scheduler.max-connections-per-host} cap. An admitted download holds a
+ * {@link Lease} on its connections until all its part workers have stopped, so the worker pool
+ * never needs more threads than the global cap. Adaptive downloads grow and shrink their lease
+ * while they run.
+ * <p>
+ * Downloads submitted in batches are probed before they are queued, on a separate pool of
+ * {@code download.scheduler.max-probes} threads so slow origins never hold up submission.
+ */
+@Component
+@Slf4j
+public class DownloadScheduler {
+
+    private static final Comparator<Ticket> ORDER = Comparator
+            .comparingInt(Ticket::priority).reversed()
+            .thenComparingLong(Ticket::sequence);
+
+    // Guarded by this
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>(ORDER);
+    private final Map<String, Integer> hostConnections = new HashMap<>();
+    private int activeConnections;
+    private int activeDownloads;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong rejectedSubmissions = new AtomicLong();
+    private ThreadPoolExecutor workers;
+    private ThreadPoolExecutor probes;
+
+    @Value("${download.scheduler.max-connections:32}")
+    private int maxConnections;
+
+    @Value("${download.scheduler.max-connections-per-host:8}")
+    private int maxConnectionsPerHost;
+
+    @Value("${download.scheduler.max-queued:10000}")
+    private int maxQueued;
+
+    @Value("${download.scheduler.max-probes:8}")
+    private int maxProbes;
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = new ThreadPoolExecutor(maxConnections, maxConnections, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> new Thread(r, "download-worker-" + threadNumber.incrementAndGet()));
+        workers.allowCoreThreadTimeOut(true);
+        AtomicInteger probeNumber = new AtomicInteger();
+        probes = new ThreadPoolExecutor(maxProbes, maxProbes, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> new Thread(r, "download-probe-" + probeNumber.incrementAndGet()));
+        probes.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    void stop() {
+        probes.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Executor for blocking part I/O. Sized to the global connection cap.
+     */
+    public Executor getWorkerExecutor() {
+        return workers;
+    }
+
+    /**
+     * Executor for probing queued downloads, in submission order and at most
+     * {@code download.scheduler.max-probes} at a time.
+     */
+    public Executor getProbeExecutor() {
+        return probes;
+    }
+
+    /**
+     * Queues a download that wants up to {@code connections} parallel connections.
+     * {@code start} is called with the granted lease once the download is admitted.
+     *
+     * @return false if the queue is full and the submission was rejected
+     */
+    public boolean submit(Download download, int connections, Consumer<Lease> start) {
+        Ticket ticket = new Ticket(download.getId(), hostOf(download.getUrl()), Math.max(1, connections),
+                download.getPriority(), sequence.incrementAndGet(), start);
+        synchronized (this) {
+            if (queue.size() >= maxQueued) {
+                rejectedSubmissions.incrementAndGet();
+                return false;
+            }
+            queue.add(ticket);
+        }
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Removes a download that has not been admitted yet.
+     *
+     * @return true if the download was still waiting in the queue
+     */
+    public synchronized boolean cancel(Long downloadId) {
+        return queue.removeIf(ticket -> ticket.downloadId().equals(downloadId));
+    }
+
+    public synchronized SchedulerStats getStats() {
+        return new SchedulerStats(queue.size(), activeDownloads, activeConnections, maxConnections,
+                maxConnectionsPerHost, new HashMap<>(hostConnections), rejectedSubmissions.get(),
+                probes.getQueue().size() + probes.getActiveCount());
+    }
+
+    private void dispatch() {
+        List<Lease> admitted = new ArrayList<>();
+        synchronized (this) {
+            List<Ticket> blocked = new ArrayList<>();
+            Ticket ticket;
+            while (activeConnections < maxConnections && (ticket = queue.poll()) != null) {
+                int hostFree = maxConnectionsPerHost - hostConnections.getOrDefault(ticket.host(), 0);
+                int granted = Math.min(ticket.connections(), Math.min(maxConnections - activeConnections, hostFree));
+                if (granted <= 0) {
+                    // Host is saturated, let lower priority downloads from other hosts go ahead
+                    blocked.add(ticket);
+                    continue;
+                }
+                activeConnections += granted;
+                activeDownloads++;
+                hostConnections.merge(ticket.host(), granted, Integer::sum);
+                admitted.add(new Lease(ticket, granted));
+            }
+            queue.addAll(blocked);
+        }
+
+        for (Lease lease : admitted) {
+            try {
+                lease.ticket.start().accept(lease);
+            } catch (RuntimeException e) {
+                log.error("Error starting download {}: {}", lease.ticket.downloadId(), e.getMessage(), e);
+                lease.release();
+            }
+        }
+    }
+
+    private synchronized void release(Lease lease) {
+        activeConnections -= lease.connections;
+        activeDownloads--;
+        hostConnections.computeIfPresent(lease.ticket.host(), (host, count) ->
+                count > lease.connections ? count - lease.connections : null);
+    }
+
+    // Queued downloads come first, a running download only grows into connections nobody waits for
+    private synchronized boolean grow(Lease lease) {
+        if (lease.released.get() || !queue.isEmpty() || activeConnections >= maxConnections
+                || hostConnections.getOrDefault(lease.ticket.host(), 0) >= maxConnectionsPerHost) {
+            return false;
+        }
+        activeConnections++;
+        hostConnections.merge(lease.ticket.host(), 1, Integer::sum);
+        lease.connections++;
+        return true;
+    }
+
+    private synchronized boolean shrink(Lease lease) {
+        if (lease.released.get() || lease.connections <= 1) {
+            return false;
+        }
+        activeConnections--;
+        hostConnections.computeIfPresent(lease.ticket.host(), (host, count) -> count > 1 ? count - 1 : null);
+        lease.connections--;
+        return true;
+    }
+
+    public static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Connections granted to an admitted download. Released exactly once when the download
+     * stops, which lets the next queued downloads in.
+     */
+    public class Lease {
+        private final Ticket ticket;
+        // Guarded by the scheduler
+        private int connections;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(Ticket ticket, int connections) {
+            this.ticket = ticket;
+            this.connections = connections;
+        }
+
+        public int getConnections() {
+            synchronized (DownloadScheduler.this) {
+                return connections;
+            }
+        }
+
+        /**
+         * Takes one more connection if the caps allow it and no other download is waiting.
+         */
+        public boolean grow() {
+            return DownloadScheduler.this.grow(this);
+        }
+
+        /**
+         * Gives one connection back before the download stops. The last one is only returned by
+         * {@link #release()}.
+         */
+        public void shrink() {
+            if (DownloadScheduler.this.shrink(this)) {
+                dispatch();
+            }
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                DownloadScheduler.this.release(this);
+                dispatch();
+            }
+        }
+    }
+
+    private record Ticket(Long downloadId, String host, int connections, int priority, long sequence,
+                          Consumer<Lease> start) {
+    }
+}
@@ -1,47 +1,141 @@
 package com.downloader.service;
 
+import com.downloader.dto.DownloadPage;
+import com.downloader.dto.DownloadQuery;
+import com.downloader.dto.DownloadRequest;
+import com.downloader.dto.DownloadSummary;
+import com.downloader.model.CacheEntry;
 import com.downloader.model.Download;
 import com.downloader.model.DownloadPart;
 import com.downloader.repository.DownloadPartRepository;
 import com.downloader.repository.DownloadRepository;
+import com.downloader.transport.HttpTransport;
+import com.downloader.transport.JdkHttpClientTransport;
+import com.downloader.transport.ProbeResult;
+import com.downloader.transport.RangeResponse;
+import io.micrometer.core.instrument.Counter;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class DownloadService {
 
+    private static final int SMALL_FILE_BUFFER_SIZE = 64 * 1024;
+    private static final List<String> COMPOUND_EXTENSIONS = List.of(".tar.gz", ".tar.bz2", ".tar.xz", ".tar.zst");
+
     private final DownloadRepository downloadRepository;
     private final DownloadPartRepository downloadPartRepository;
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
-
-    @Value("${download.chunk.size:1048576}") // 1MB default chunk size
-    private int chunkSize;
+    private final ProgressJournal progressJournal;
+    private final List<SegmentWriter> segmentWriters;
+    private final DownloadScheduler downloadScheduler;
+    private final RetryPolicy retryPolicy;
+    private final List<HttpTransport> httpTransports;
+    private final ProgressBroadcaster progressBroadcaster;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final ChecksumVerifier checksumVerifier;
+    private final ArchiveExtractor archiveExtractor;
+    private final DownloadCache downloadCache;
+    private final SegmentTuner segmentTuner;
+    private final DownloadMetrics downloadMetrics;
+    private final ClusterLeases clusterLeases;
 
     @Value("${download.default.threads:4}")
     private int defaultThreadCount;
 
+    @Value("${download.write.engine:" + StreamSegmentWriter.NAME + "}")
+    private String defaultWriteEngine;
+
+    @Value("${download.split.enabled:true}")
+    private boolean splitEnabled;
+
+    @Value("${download.split.min-size:1048576}") // Don't steal ranges smaller than 1MB
+    private long minSplitSize;
+
+    @Value("${download.http.transport:" + JdkHttpClientTransport.NAME + "}")
+    private String httpTransportName;
+
     @Value("${download.storage.location:downloads}")
     private String downloadStorageLocation;
 
+    @Value("${download.mirror.max-mirrors:16}")
+    private int maxMirrors;
+
+    @Value("${download.mirror.cooldown-ms:10000}")
+    private long mirrorCooldownMs;
+
+    @Value("${download.mirror.max-failures:3}")
+    private int mirrorMaxFailures;
+
+    @Value("${download.mirror.slow-ratio:0.25}")
+    private double mirrorSlowRatio;
+
+    // Files up to this size are fetched with the probe request, 0 turns the fast path off
+    @Value("${download.small-file.max-size:1048576}")
+    private long smallFileMaxSize;
+
+    @Value("${download.small-file.pipelined:true}")
+    private boolean pipelined;
+
+    @Value("${download.scheduler.max-connections-per-host:8}")
+    private int maxConnectionsPerHost;
+
+    // Downloads are split into parts of at most this size in a cluster, so their parts spread over the nodes
+    @Value("${download.cluster.part-size:33554432}")
+    private long clusterPartSize;
+
+    @Value("${download.log.sample-interval-ms:1000}")
+    private long logSampleIntervalMs;
+
+    @Value("${download.log.progress-interval-ms:5000}")
+    private long progressLogIntervalMs;
+
+    // Per download limits for the log lines written for every part, retry and chunk
+    private LogSampler partLog;
+    private LogSampler retryLog;
+    private LogSampler progressLog;
+
+    private ProbePipeline probePipeline;
+    // Downloads this cluster node queued or runs parts of
+    private final Set<Long> clusterRuns = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void start() {
+        partLog = new LogSampler(logSampleIntervalMs);
+        retryLog = new LogSampler(logSampleIntervalMs);
+        progressLog = new LogSampler(progressLogIntervalMs);
+        probePipeline = new ProbePipeline(downloadScheduler.getProbeExecutor(), this::probeQueued, maxConnectionsPerHost);
+    }
+
     public void init() {
         try {
             Files.createDirectories(Paths.get(downloadStorageLocation));
@@ -51,83 +145,457 @@ public class DownloadService {
     }
 
     public Download startDownload(String fileUrl, String customFileName, Integer threadCount) throws IOException {
+        return startDownload(new DownloadRequest(fileUrl, customFileName, threadCount));
+    }
+
+    public Download startDownload(DownloadRequest request) throws IOException {
+        String fileUrl = request.getUrl();
         try {
-            init(); // Ensure download directory exists
-            URL url = new URL(fileUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            
-            // Add common headers
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0");
-            conn.setRequestProperty("Accept", "*/*");
-            
-            int responseCode = conn.getResponseCode();
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                throw new IOException("Server returned HTTP response code: " + responseCode);
-            }
+            Checksum requestedChecksum = request.getChecksum() != null && !request.getChecksum().isBlank()
+                    ? Checksum.parse(request.getChecksum())
+                    : null;
+            return initialize(new Download(), request, requestedChecksum);
+        } catch (Exception e) {
+            log.error("Failed to start download: " + e.getMessage(), e);
+            Download failedDownload = new Download();
+            failedDownload.setUrl(fileUrl);
+            failedDownload.setHost(DownloadScheduler.hostOf(fileUrl));
+            failedDownload.setFileName(getFileNameFromUrl(fileUrl, null));
+            failedDownload.setDownloadStatus(Download.DownloadStatus.FAILED);
+            failedDownload.setStartTime(LocalDateTime.now());
+            failedDownload.setErrorMessage(e.getMessage());
+            downloadMetrics.downloadFailed("start");
+            Download saved = downloadRepository.save(failedDownload);
+            progressBroadcaster.publish(saved);
+            return saved;
+        }
+    }
 
-            long fileSize = conn.getContentLengthLong();
-            if (fileSize <= 0) {
-                throw new IOException("Invalid file size or file not accessible");
+    /**
+     * Probes and queues a download that was stored without a probe, typically from a batch
+     * manifest. Runs on the scheduler's probe executor, so slow origins only hold up each other.
+     * In pipelined mode the probes of one host run in lanes, see {@link ProbePipeline}. In a
+     * cluster the probe is left to the node that claims the download.
+     */
+    public void probeLater(Long id, String host) {
+        if (!clusterLeases.runsDownloads() || (clusterLeases.isEnabled() && !clusterLeases.claimDownload(id))) {
+            return;
+        }
+        if (pipelined) {
+            probePipeline.submit(host, id);
+        } else {
+            downloadScheduler.getProbeExecutor().execute(() -> probeQueued(id));
+        }
+    }
+
+    private void probeQueued(Long id) {
+        Download download = null;
+        try {
+            download = downloadRepository.findById(id).orElse(null);
+            if (download == null || download.getDownloadStatus() != Download.DownloadStatus.PENDING
+                    || !download.getParts().isEmpty()) {
+                return; // Paused or already probed meanwhile
+            }
+            // The stored columns are what the manifest asked for, initialize fills in the rest
+            DownloadRequest request = new DownloadRequest(download.getUrl(), download.getFileName(),
+                    download.getThreadCount() > 0 ? download.getThreadCount() : null);
+            request.setEngine(download.getWriteEngine());
+            request.setPriority(download.getPriority());
+            request.setMaxBytesPerSecond(download.getMaxBytesPerSecond());
+            request.setMirrors(download.getMirrors());
+            request.setExtract(download.isExtract());
+            Checksum requestedChecksum = download.getExpectedChecksum() != null
+                    ? new Checksum(download.getChecksumAlgorithm(), download.getExpectedChecksum())
+                    : null;
+            initialize(download, request, requestedChecksum);
+        } catch (Exception e) {
+            log.warn("Download {} failed its probe: {}", id, e.getMessage());
+            if (download == null) {
+                return;
+            }
+            if (download.getFileName() == null) {
+                download.setFileName(getFileNameFromUrl(download.getUrl(), null));
             }
+            download.setDownloadStatus(Download.DownloadStatus.FAILED);
+            download.setErrorMessage(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            downloadMetrics.downloadFailed("start");
+            progressBroadcaster.publish(downloadRepository.save(download));
+        } finally {
+            clusterLeases.releaseDownload(id);
+        }
+    }
 
-            // Get content type and suggested filename from headers
-            String contentType = conn.getContentType();
-            String contentDisposition = conn.getHeaderField("Content-Disposition");
-            String fileName = getFileName(fileUrl, customFileName, conn);
+    /**
+     * Fills in {@code download} from the cache or from a probe of its URL and queues it.
+     */
+    private Download initialize(Download download, DownloadRequest request, Checksum requestedChecksum) throws IOException {
+        String fileUrl = request.getUrl();
+        String customFileName = request.getFileName();
+        Integer threadCount = request.getThreadCount();
+        String writeEngine = request.getEngine();
+        init(); // Ensure download directory exists
+
+        // Known content or a recently validated URL needs no network at all
+        CacheEntry cached = requestedChecksum != null ? downloadCache.lookup(requestedChecksum) : null;
+        if (cached != null) {
+            return completeFromCache(download, request, requestedChecksum, cached, false);
+        }
+        cached = downloadCache.lookup(fileUrl);
+        if (cached != null && downloadCache.isFresh(cached)) {
+            return completeFromCache(download, request, requestedChecksum, cached, false);
+        }
 
-            // If no filename in Content-Disposition, try to get from URL
-            if (fileName == null || fileName.trim().isEmpty()) {
-                fileName = getFileNameFromUrl(fileUrl, contentType);
+        ProbeResult probe = null;
+        if (cached == null && smallFileMaxSize > 0) {
+            // The first bytes instead of a HEAD: for a small file that is the whole download
+            try (RangeResponse response = httpTransport().get(fileUrl, 0, smallFileMaxSize - 1, null)) {
+                probe = ProbeResult.fromRangeResponse(response);
+                if (probe.getStatusCode() == HttpURLConnection.HTTP_OK && probe.getContentLength() > 0
+                        && probe.getContentLength() <= smallFileMaxSize && coversWholeFile(response, probe)) {
+                    Download completed = downloadSmallFile(download, request, requestedChecksum, probe, response);
+                    if (completed != null) {
+                        return completed;
+                    }
+                    probe = null;
+                } else {
+                    response.abort();
+                    if (probe.getStatusCode() != HttpURLConnection.HTTP_OK || probe.getContentLength() <= 0) {
+                        probe = null; // Let the regular probe have its say
+                    }
+                }
             }
+        }
+        if (probe == null) {
+            // HEAD (or a one byte range) instead of a GET whose body would be left unread
+            probe = cached != null
+                    ? httpTransport().probe(fileUrl, cached.getEtag(), cached.getLastModified())
+                    : httpTransport().probe(fileUrl);
+        }
+        if (cached != null && downloadCache.isStillValid(cached, probe)) {
+            return completeFromCache(download, request, requestedChecksum, cached, true);
+        }
+        if (probe.getStatusCode() != HttpURLConnection.HTTP_OK) {
+            throw new HttpStatusException(probe.getStatusCode(), null);
+        }
+
+        // An explicit checksum wins over one announced by the server
+        Checksum expectedChecksum = requestedChecksum != null ? requestedChecksum : Checksum.fromProbe(probe);
+
+        long fileSize = probe.getContentLength();
+        if (fileSize <= 0) {
+            throw new IOException("Invalid file size or file not accessible");
+        }
+
+        // Get content type and suggested filename from headers
+        String contentType = probe.getContentType();
+        String fileName = getFileName(fileUrl, customFileName, probe);
+
+        // If no filename in Content-Disposition, try to get from URL
+        if (fileName == null || fileName.trim().isEmpty()) {
+            fileName = getFileNameFromUrl(fileUrl, contentType);
+        }
+
+        fileName = reserveFileName(fileName);
+        String filePath = Paths.get(downloadStorageLocation, fileName).toString();
+
+        download.setUrl(fileUrl);
+        download.setHost(DownloadScheduler.hostOf(fileUrl));
+        download.setFileName(fileName);
+        download.setTotalSize(fileSize);
+        // Validators for If-Range, so a resume never mixes bytes of two versions of the file
+        download.setEtag(probe.getEtag());
+        download.setLastModified(probe.getLastModified());
+        if (expectedChecksum != null) {
+            download.setChecksumAlgorithm(expectedChecksum.algorithm());
+            download.setExpectedChecksum(expectedChecksum.hex());
+        }
+        // Without an explicit thread count the SegmentTuner picks it, starting from what the host taught it
+        boolean adaptive = (threadCount == null || threadCount <= 0) && segmentTuner.isEnabled();
+        download.setAdaptive(adaptive);
+        download.setThreadCount(threadCount != null && threadCount > 0 ? threadCount
+                : adaptive ? segmentTuner.initialSegments(download.getHost()) : defaultThreadCount);
+        download.setWriteEngine(writeEngine != null && !writeEngine.isBlank() ? writeEngine : defaultWriteEngine);
+        download.setPriority(request.getPriority() != null ? request.getPriority() : 0);
+        download.setMaxBytesPerSecond(request.getMaxBytesPerSecond() != null ? Math.max(0, request.getMaxBytesPerSecond()) : 0);
+        if (download.getStartTime() == null) {
+            download.setStartTime(LocalDateTime.now());
+        }
+        download.setDownloadStatus(Download.DownloadStatus.PENDING);
+        download.setFilePath(filePath);
+        download.setErrorMessage(null);
+        download.setMirrors(new ArrayList<>(probeMirrors(download, request.getMirrors()).keySet()));
+        download.setExtract(Boolean.TRUE.equals(request.getExtract()));
+
+        createDownloadParts(download);
+
+        downloadRepository.save(download);
+        enqueue(download);
+
+        return download;
+    }
+
+    /**
+     * Completes a download from the cache: the cached blob is linked under the new file name.
+     */
+    private Download completeFromCache(Download download, DownloadRequest request, Checksum requestedChecksum,
+                                       CacheEntry cached, boolean revalidated) throws IOException {
+        String fileName = request.getFileName() != null && !request.getFileName().trim().isEmpty()
+                ? request.getFileName()
+                : getFileNameFromUrl(request.getUrl(), null);
+        fileName = uniqueFileName(fileName);
+        String filePath = Paths.get(downloadStorageLocation, fileName).toString();
+        downloadCache.materialize(cached, Paths.get(filePath), revalidated);
+
+        LocalDateTime now = LocalDateTime.now();
+        download.setUrl(request.getUrl());
+        download.setHost(DownloadScheduler.hostOf(request.getUrl()));
+        download.setFileName(fileName);
+        download.setFilePath(filePath);
+        download.setTotalSize(cached.getSize());
+        download.setDownloadedSize(cached.getSize());
+        download.setProgress(100);
+        download.setEtag(cached.getEtag());
+        download.setLastModified(cached.getLastModified());
+        download.setChecksumAlgorithm(cached.getChecksumAlgorithm());
+        download.setChecksum(cached.getChecksum());
+        if (requestedChecksum != null) {
+            download.setExpectedChecksum(cached.getChecksum());
+        }
+        download.setThreadCount(0);
+        download.setPriority(request.getPriority() != null ? request.getPriority() : 0);
+        download.setFromCache(true);
+        download.setExtract(Boolean.TRUE.equals(request.getExtract()));
+        if (download.getStartTime() == null) {
+            download.setStartTime(now);
+        }
+        download.setCompletionTime(now);
+        download.setDownloadStatus(Download.DownloadStatus.COMPLETED);
+        Download saved = downloadRepository.save(download);
+        log.info("Download {} served from cache ({})", saved.getId(), revalidated ? "revalidated" : "no request");
+        progressBroadcaster.publish(saved);
+        archiveExtractor.completed(saved);
+        return saved;
+    }
+
+    // Whether the body of a range response is exactly the file, as far as its length says
+    private static boolean coversWholeFile(RangeResponse response, ProbeResult probe) {
+        String contentLength = response.getHeader("Content-Length");
+        return contentLength == null || contentLength.trim().equals(String.valueOf(probe.getContentLength()));
+    }
 
-            String filePath = Paths.get(downloadStorageLocation, fileName).toString();
+    /**
+     * Fast path for a file no larger than {@code download.small-file.max-size}: the body of the
+     * probe response is streamed straight to disk and hashed on the way, and the download is
+     * saved once, finished, without parts, scheduling or progress journal. A thread count asked
+     * for is ignored. Returns null after deleting the file if the body broke off, the caller
+     * then takes the regular path.
+     */
+    private Download downloadSmallFile(Download download, DownloadRequest request, Checksum requestedChecksum,
+                                       ProbeResult probe, RangeResponse response) throws IOException {
+        String fileUrl = request.getUrl();
+        String host = DownloadScheduler.hostOf(fileUrl);
+        long size = probe.getContentLength();
+        Checksum expectedChecksum = requestedChecksum != null ? requestedChecksum : Checksum.fromProbe(probe);
+        String algorithm = expectedChecksum != null ? expectedChecksum.algorithm() : Checksum.SHA_256;
+        MessageDigest digest = checksumVerifier.isEnabled() ? Checksum.newDigest(algorithm) : null;
+        long maxBytesPerSecond = request.getMaxBytesPerSecond() != null ? Math.max(0, request.getMaxBytesPerSecond()) : 0;
 
-            // Handle duplicate filenames
-            File file = new File(filePath);
-            if (file.exists()) {
-                String baseName = fileName;
-                String extension = "";
-                int dotIndex = fileName.lastIndexOf('.');
-                if (dotIndex > 0) {
-                    baseName = fileName.substring(0, dotIndex);
-                    extension = fileName.substring(dotIndex);
+        String fileName = reserveFileName(getFileName(fileUrl, request.getFileName(), probe));
+        Path file = Paths.get(downloadStorageLocation, fileName);
+        BandwidthLimiter.Throttle throttle = bandwidthLimiter.throttle(host, maxBytesPerSecond);
+        Counter hostBytes = downloadMetrics.hostBytes(host);
+        long received = 0;
+        try (InputStream in = response.getBody(); OutputStream out = Files.newOutputStream(file)) {
+            byte[] buffer = new byte[(int) Math.min(size, SMALL_FILE_BUFFER_SIZE)];
+            int read;
+            while (received < size && (read = in.read(buffer, 0, (int) Math.min(buffer.length, size - received))) != -1) {
+                out.write(buffer, 0, read);
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
                 }
-                fileName = baseName + "_" + System.currentTimeMillis() + extension;
-                filePath = Paths.get(downloadStorageLocation, fileName).toString();
+                received += read;
+                hostBytes.increment(read);
+                long wait = throttle.reserve(read);
+                if (wait > 0) {
+                    throttle.await(wait, () -> false);
+                }
+            }
+            // Reading to the end hands the connection back for the next request
+            if (received < size || in.read() != -1) {
+                throw new IOException("Received " + received + " bytes of a " + size + " byte file");
             }
+        } catch (IOException e) {
+            log.warn("Small file {} broke off, continuing as a regular download: {}", fileUrl, e.getMessage());
+            Files.deleteIfExists(file);
+            downloadMetrics.smallFile("fallback");
+            return null;
+        }
 
-            Download download = new Download();
-            download.setUrl(fileUrl);
-            download.setFileName(fileName);
-            download.setTotalSize(fileSize);
-            download.setThreadCount(threadCount != null && threadCount > 0 ? threadCount : defaultThreadCount);
-            download.setStartTime(LocalDateTime.now());
-            download.setDownloadStatus(Download.DownloadStatus.IN_PROGRESS);
-            download.setFilePath(filePath);
-            download.setErrorMessage(null);
+        LocalDateTime now = LocalDateTime.now();
+        download.setUrl(fileUrl);
+        download.setHost(host);
+        download.setFileName(fileName);
+        download.setFilePath(file.toString());
+        download.setTotalSize(size);
+        download.setDownloadedSize(size);
+        download.setProgress(100);
+        download.setEtag(probe.getEtag());
+        download.setLastModified(probe.getLastModified());
+        download.setThreadCount(1);
+        download.setPriority(request.getPriority() != null ? request.getPriority() : 0);
+        download.setMaxBytesPerSecond(maxBytesPerSecond);
+        download.setMirrors(new ArrayList<>());
+        download.setExtract(Boolean.TRUE.equals(request.getExtract()));
+        if (download.getStartTime() == null) {
+            download.setStartTime(now);
+        }
+        if (expectedChecksum != null) {
+            download.setExpectedChecksum(expectedChecksum.hex());
+        }
+        if (digest != null) {
+            download.setChecksumAlgorithm(algorithm);
+            download.setChecksum(HexFormat.of().formatHex(digest.digest()));
+        } else if (expectedChecksum != null) {
+            download.setChecksumAlgorithm(algorithm);
+        }
+        if (digest != null && expectedChecksum != null && !expectedChecksum.hex().equals(download.getChecksum())) {
+            download.setDownloadStatus(Download.DownloadStatus.FAILED);
+            download.setErrorMessage("Checksum mismatch: expected " + expectedChecksum.hex() + ", got " + download.getChecksum());
+            downloadMetrics.downloadFailed("checksum");
+        } else {
+            markCompleted(download);
+        }
+        Download saved = downloadRepository.save(download);
+        downloadMetrics.smallFile("fetched");
+        if (saved.getDownloadStatus() == Download.DownloadStatus.COMPLETED) {
+            downloadCache.store(saved);
+        }
+        progressBroadcaster.publish(saved);
+        if (saved.getDownloadStatus() == Download.DownloadStatus.COMPLETED) {
+            archiveExtractor.completed(saved);
+        }
+        return saved;
+    }
 
-            createDownloadParts(download);
+    // Appends a timestamp when a file of that name already exists
+    private String uniqueFileName(String fileName) {
+        if (!new File(Paths.get(downloadStorageLocation, fileName).toString()).exists()) {
+            return fileName;
+        }
+        return withSuffix(fileName, String.valueOf(System.currentTimeMillis()));
+    }
 
-            downloadRepository.save(download);
-            startMultiThreadedDownload(download);
+    // Creates the empty output file right away, so downloads probed at the same time can't pick the same name.
+    // The file is marked sparse where the file system needs to be told before it is extended.
+    private String reserveFileName(String fileName) throws IOException {
+        String candidate = uniqueFileName(fileName);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                FileChannel.open(Paths.get(downloadStorageLocation, candidate),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.SPARSE).close();
+                return candidate;
+            } catch (FileAlreadyExistsException e) {
+                candidate = withSuffix(fileName, System.currentTimeMillis() + "_" + attempt);
+            }
+        }
+    }
 
-            return download;
-        } catch (Exception e) {
-            log.error("Failed to start download: " + e.getMessage(), e);
-            Download failedDownload = new Download();
-            failedDownload.setUrl(fileUrl);
-            failedDownload.setFileName(getFileNameFromUrl(fileUrl, null));
-            failedDownload.setDownloadStatus(Download.DownloadStatus.FAILED);
-            failedDownload.setStartTime(LocalDateTime.now());
-            failedDownload.setErrorMessage(e.getMessage());
-            return downloadRepository.save(failedDownload);
+    // Compound extensions stay together, so foo.tar.gz becomes foo_<suffix>.tar.gz and is still found to be a tarball
+    private static String withSuffix(String fileName, String suffix) {
+        String baseName = fileName;
+        String extension = "";
+        int dotIndex = fileName.lastIndexOf('.');
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        for (String compound : COMPOUND_EXTENSIONS) {
+            if (lower.endsWith(compound) && lower.length() > compound.length()) {
+                dotIndex = fileName.length() - compound.length();
+                break;
+            }
+        }
+        if (dotIndex > 0) {
+            baseName = fileName.substring(0, dotIndex);
+            extension = fileName.substring(dotIndex);
+        }
+        return baseName + "_" + suffix + extension;
+    }
+
+    /**
+     * Probes mirror URLs of a download and keeps those serving the same file, in order. A
+     * mirror must have the same size. If the file's checksum is known and verified, a mirror
+     * only needs to announce the same digest, if any: the assembled file is checked anyway.
+     * Otherwise validators both sides announce must match, a strong ETag or else Last-Modified.
+     */
+    private Map<String, ProbeResult> probeMirrors(Download download, List<String> urls) {
+        Map<String, ProbeResult> accepted = new LinkedHashMap<>();
+        if (urls == null) {
+            return accepted;
+        }
+        for (String url : urls) {
+            if (url == null || url.isBlank() || url.equals(download.getUrl()) || accepted.containsKey(url)) {
+                continue;
+            }
+            if (accepted.size() == maxMirrors) {
+                log.warn("More than {} mirrors for {}, ignoring the rest", maxMirrors, download.getUrl());
+                break;
+            }
+            try {
+                ProbeResult probe = httpTransport().probe(url);
+                String mismatch = mirrorMismatch(download, probe);
+                if (mismatch == null) {
+                    accepted.put(url, probe);
+                } else {
+                    log.warn("Ignoring mirror {} of {}: {}", url, download.getUrl(), mismatch);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Ignoring mirror {} of {}: {}", url, download.getUrl(), e.getMessage());
+            }
+        }
+        return accepted;
+    }
+
+    // Why a mirror doesn't serve the file of the download, or null if it does
+    private String mirrorMismatch(Download download, ProbeResult probe) {
+        if (probe.getStatusCode() != HttpURLConnection.HTTP_OK) {
+            return "status " + probe.getStatusCode();
+        }
+        if (probe.getContentLength() != download.getTotalSize()) {
+            return "size " + probe.getContentLength() + " instead of " + download.getTotalSize();
+        }
+        Checksum announced = Checksum.fromProbe(probe);
+        if (download.getExpectedChecksum() != null && announced != null
+                && announced.algorithm().equals(download.getChecksumAlgorithm())
+                && !announced.hex().equalsIgnoreCase(download.getExpectedChecksum())) {
+            return "different " + announced.algorithm() + " digest";
+        }
+        if (download.getExpectedChecksum() != null && checksumVerifier.isEnabled()) {
+            return null;
+        }
+        String etag = download.getEtag();
+        if (etag != null && !etag.startsWith("W/") && probe.getEtag() != null && !probe.getEtag().startsWith("W/")) {
+            return etag.equals(probe.getEtag()) ? null : "different ETag " + probe.getEtag();
         }
+        if (download.getLastModified() != null && probe.getLastModified() != null
+                && !download.getLastModified().equals(probe.getLastModified())) {
+            return "different Last-Modified " + probe.getLastModified();
+        }
+        return null;
     }
 
-    private String getFileName(String fileUrl, String customFileName, HttpURLConnection conn) throws java.io.UnsupportedEncodingException {
+    // The download's own URL followed by the mirrors that still serve the same file
+    private MirrorSet mirrorSet(Download download) {
+        List<MirrorSet.Mirror> mirrors = new ArrayList<>();
+        mirrors.add(new MirrorSet.Mirror(download.getUrl(), ifRangeValidator(download.getEtag(), download.getLastModified())));
+        probeMirrors(download, download.getMirrors()).forEach((url, probe) ->
+                mirrors.add(new MirrorSet.Mirror(url, ifRangeValidator(probe.getEtag(), probe.getLastModified()))));
+        if (mirrors.size() > 1) {
+            log.info("Download {} uses {} mirrors", download.getId(), mirrors.size());
+        }
+        return new MirrorSet(mirrors, mirrorCooldownMs, mirrorMaxFailures, mirrorSlowRatio);
+    }
+
+    private String getFileName(String fileUrl, String customFileName, ProbeResult probe) {
         String fileName = customFileName;
-        String contentDisposition = conn.getHeaderField("Content-Disposition");
+        String contentDisposition = probe.getContentDisposition();
 
         if (fileName == null || fileName.trim().isEmpty()) {
             if (contentDisposition != null && contentDisposition.contains("filename=")) {
@@ -139,31 +607,19 @@ public class DownloadService {
         }
 
         if (fileName == null || fileName.trim().isEmpty()) {
-            fileName = getFileNameFromUrl(fileUrl, conn.getContentType());
+            fileName = getFileNameFromUrl(fileUrl, probe.getContentType());
         }
 
         return fileName;
     }
 
-    public Resource getDownloadedFile(Long id) throws IOException {
-        Download download = getDownload(id);
-        if (download == null || download.getDownloadStatus() != Download.DownloadStatus.COMPLETED) {
-            throw new IOException("File not found or download not completed");
-        }
-
-        Path filePath = Paths.get(download.getFilePath());
-        Resource resource = new FileSystemResource(filePath.toFile());
-
-        if (resource.exists()) {
-            return resource;
-        } else {
-            throw new IOException("File not found: " + download.getFilePath());
-        }
-    }
-
     private void createDownloadParts(Download download) {
         long fileSize = download.getTotalSize();
         int threadCount = download.getThreadCount();
+        if (clusterLeases.isEnabled()) {
+            // More parts than one node runs at once, the other nodes claim the rest
+            threadCount = (int) Math.max(threadCount, Math.min(fileSize, (fileSize + clusterPartSize - 1) / clusterPartSize));
+        }
         long partSize = fileSize / threadCount;
 
         for (int i = 0; i < threadCount; i++) {
@@ -179,108 +635,746 @@ public class DownloadService {
         }
     }
 
-    private void startMultiThreadedDownload(Download download) {
-        try {
-            File outputFile = new File(download.getFilePath());
-            outputFile.createNewFile();
-            RandomAccessFile randomAccessFile = new RandomAccessFile(outputFile, "rw");
-            randomAccessFile.setLength(download.getTotalSize());
-            randomAccessFile.close();
+    /**
+     * Hands the download to the scheduler; it stays PENDING until connections are free. In a
+     * cluster it stays PENDING until nodes claim its parts.
+     */
+    private void enqueue(Download download) {
+        if (clusterLeases.isEnabled()) {
+            progressBroadcaster.publish(download);
+            return;
+        }
+        // Started on a worker thread, preparing the file must not hold up whoever freed the connections
+        if (!downloadScheduler.submit(download, download.getThreadCount(),
+                lease -> downloadScheduler.getWorkerExecutor().execute(() -> startMultiThreadedDownload(download, lease)))) {
+            log.warn("Download {} rejected, scheduler queue is full", download.getId());
+            download.setDownloadStatus(Download.DownloadStatus.FAILED);
+            download.setErrorMessage("Download queue is full");
+            downloadMetrics.downloadFailed("queue_full");
+            downloadRepository.save(download);
+        }
+        progressBroadcaster.publish(download);
+    }
 
-            List<Future<Boolean>> futures = new ArrayList<>();
+    private void startMultiThreadedDownload(Download download, DownloadScheduler.Lease lease) {
+        if (clusterLeases.isEnabled()) {
+            startClaimed(download.getId(), lease);
+            return;
+        }
+        try {
+            download.setDownloadStatus(Download.DownloadStatus.IN_PROGRESS);
+            downloadRepository.save(download);
+            progressBroadcaster.publish(download);
 
-            for (DownloadPart part : download.getParts()) {
-                futures.add(executorService.submit(() ->
-                    downloadPart(download, part)));
-            }
+            preallocate(Paths.get(download.getFilePath()), download.getTotalSize());
 
-            executorService.submit(() -> monitorProgress(download, futures));
+            SegmentWriter writer = segmentWriter(download);
+            DownloadProgress progress = progressJournal.register(download);
+            checksumVerifier.start(progress);
+            archiveExtractor.start(progress);
+            startWorkers(progress, writer, lease);
         } catch (Exception e) {
             log.error("Error starting multi-threaded download: " + e.getMessage(), e);
+            lease.release();
             download.setDownloadStatus(Download.DownloadStatus.FAILED);
             download.setErrorMessage("Failed to initialize download: " + e.getMessage());
+            downloadMetrics.downloadFailed("start");
             downloadRepository.save(download);
+            progressBroadcaster.publish(download);
         }
     }
 
-    private boolean downloadPart(Download download, DownloadPart part) {
+    /**
+     * Queues a download for this cluster node, which claims as many of its parts as it gets
+     * connections when it starts. Does nothing if the node already runs or queued it.
+     */
+    public void runClaimed(Long id) {
+        if (progressJournal.get(id) != null || !clusterRuns.add(id)) {
+            return;
+        }
+        Download download = downloadRepository.findById(id).orElse(null);
+        if (download == null || download.getParts().isEmpty()
+                || (download.getDownloadStatus() != Download.DownloadStatus.PENDING
+                && download.getDownloadStatus() != Download.DownloadStatus.IN_PROGRESS)) {
+            clusterRuns.remove(id);
+            return;
+        }
+        if (!downloadScheduler.submit(download, download.getThreadCount(),
+                lease -> downloadScheduler.getWorkerExecutor().execute(() -> startMultiThreadedDownload(download, lease)))) {
+            // Claimed again by a later poll once the queue has room
+            clusterRuns.remove(id);
+        }
+    }
+
+    // Runs the parts this cluster node manages to claim, other nodes may be running the others
+    private void startClaimed(Long id, DownloadScheduler.Lease lease) {
+        List<Long> claimed = List.of();
         try {
-            URL url = new URL(download.getUrl());
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("Range", "bytes=" + part.getStartByte() + "-" + part.getEndByte());
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0");
-            conn.setRequestProperty("Accept", "*/*");
-
-            int responseCode = conn.getResponseCode();
-            if (responseCode != HttpURLConnection.HTTP_PARTIAL && responseCode != HttpURLConnection.HTTP_OK) {
-                throw new IOException("Server returned HTTP response code: " + responseCode);
-            }
-
-            try (RandomAccessFile file = new RandomAccessFile(download.getFilePath(), "rw")) {
-                file.seek(part.getStartByte());
-                byte[] buffer = new byte[chunkSize];
-                int bytesRead;
-
-                while ((bytesRead = conn.getInputStream().read(buffer)) != -1) {
-                    file.write(buffer, 0, bytesRead);
-                    synchronized (download) {
-                        part.setDownloadedBytes(part.getDownloadedBytes() + bytesRead);
-                        download.setDownloadedSize(download.getDownloadedSize() + bytesRead);
-                        int progress = (int) ((download.getDownloadedSize() * 100) / download.getTotalSize());
-                        download.setProgress(progress);
-                        log.info("Download {} progress: {}%, downloaded: {} bytes", download.getId(), progress, download.getDownloadedSize());
-                        // Save both the part and download progress
-                        downloadPartRepository.save(part);
-                        downloadRepository.save(download);
-                    }
-                }
+            claimed = clusterLeases.claimParts(id, lease.getConnections(), Set.of());
+            if (claimed.isEmpty() || !clusterLeases.markStatus(id, Download.DownloadStatus.IN_PROGRESS, null)) {
+                clusterLeases.release(claimed);
+                lease.release();
+                clusterRuns.remove(id);
+                return;
             }
-            return true;
-        } catch (IOException e) {
-            String errorMessage = "Error downloading part " + part.getStartByte() + "-" + part.getEndByte() + ": " + e.getMessage();
-            log.error(errorMessage, e);
-            synchronized (download) {
-                download.setDownloadStatus(Download.DownloadStatus.FAILED);
-                download.setErrorMessage(errorMessage);
-                downloadRepository.save(download);
+            // Read after the claim, the rows hold what other nodes persisted of the parts
+            Download download = downloadRepository.findById(id).orElseThrow();
+            Set<Long> claimedIds = Set.copyOf(claimed);
+            List<DownloadPart> parts = download.getParts().stream().filter(part -> claimedIds.contains(part.getId())).toList();
+            log.info("Download {} runs {} of its {} parts on {}", id, parts.size(), download.getParts().size(), clusterLeases.getNodeId());
+            progressBroadcaster.publish(download);
+
+            preallocate(Paths.get(download.getFilePath()), download.getTotalSize());
+
+            // No checksum pass or extraction while downloading, the node finishing the download does them
+            SegmentWriter writer = segmentWriter(download);
+            startWorkers(progressJournal.register(download, parts), writer, lease);
+        } catch (Exception e) {
+            log.error("Error starting claimed download {}: {}", id, e.getMessage(), e);
+            clusterLeases.release(claimed);
+            lease.release();
+            clusterRuns.remove(id);
+            downloadMetrics.downloadFailed("start");
+            clusterLeases.markStatus(id, Download.DownloadStatus.FAILED, "Failed to initialize download: " + e.getMessage());
+            downloadRepository.findById(id).ifPresent(progressBroadcaster::publish);
+        }
+    }
+
+    private void startWorkers(DownloadProgress progress, SegmentWriter writer, DownloadScheduler.Lease lease) {
+        Download download = progress.getDownload();
+        progress.setCheckpointed(writer.forcesCheckpoints());
+        progress.setMirrors(mirrorSet(download));
+        downloadMetrics.register(progress);
+        bandwidthLimiter.register(download);
+
+        // One worker per granted connection, each pulls parts until none are left
+        int connections = lease.getConnections();
+        progress.startWorkers(connections);
+        if (download.isAdaptive()) {
+            segmentTuner.start(progress, () -> addWorker(progress, writer, lease));
+        }
+        for (int i = 0; i < connections; i++) {
+            startWorker(progress, writer, lease);
+        }
+    }
+
+    /**
+     * Sizes the output file without writing its contents: the file is extended by writing its
+     * last byte, which leaves a hole on file systems with sparse files, so even a file of many
+     * gigabytes takes no time and no disk space up front. A resumed download keeps the bytes
+     * already on disk.
+     */
+    private static void preallocate(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            if (length > size) {
+                channel.truncate(size);
+            } else if (length < size) {
+                channel.write(ByteBuffer.allocate(1), size - 1);
             }
+        }
+    }
+
+    private void startWorker(DownloadProgress progress, SegmentWriter writer, DownloadScheduler.Lease lease) {
+        CompletableFuture.runAsync(() -> runPartWorker(progress, writer, lease), downloadScheduler.getWorkerExecutor());
+    }
+
+    // Opens one more connection for the SegmentTuner
+    private boolean addWorker(DownloadProgress progress, SegmentWriter writer, DownloadScheduler.Lease lease) {
+        if (!lease.grow()) {
+            return false;
+        }
+        if (!progress.addWorker()) {
+            lease.shrink();
             return false;
         }
+        startWorker(progress, writer, lease);
+        return true;
+    }
+
+    /**
+     * Downloads unowned parts one after another, then keeps the thread busy by stealing the far
+     * half of the largest remaining range of the same download until nothing is left worth
+     * splitting. A worker the SegmentTuner no longer wants hands its part back and exits early.
+     * Each exiting worker returns its connection, the last one wraps the download up.
+     */
+    private void runPartWorker(DownloadProgress progress, SegmentWriter writer, DownloadScheduler.Lease lease) {
+        int left;
+        do {
+            boolean retired = false;
+            try {
+                PartProgress current = nextPart(progress);
+                while (current != null && !progress.isStopping()) {
+                    if (!downloadPart(progress, current, writer)) {
+                        progress.markFailed();
+                        break;
+                    }
+                    if (current.isHandedBack()) {
+                        current.unassign();
+                        retired = true;
+                        break;
+                    }
+                    current = nextPart(progress);
+                }
+            } catch (RuntimeException e) {
+                log.error("Download {} part worker failed: {}", progress.getDownload().getId(), e.getMessage(), e);
+                progress.markFailed();
+            }
+            left = progress.exitWorker(retired);
+        } while (left < 0);
+
+        if (left > 0) {
+            lease.shrink();
+            return;
+        }
+        Long id = progress.getDownload().getId();
+        try {
+            segmentTuner.stop(progress);
+            monitorProgress(progress, writer);
+        } finally {
+            downloadMetrics.unregister(progress);
+            partLog.forget(id);
+            retryLog.forget(id);
+            progressLog.forget(id);
+            bandwidthLimiter.unregister(id);
+            lease.release();
+            clusterRuns.remove(id);
+        }
+    }
+
+    private PartProgress nextPart(DownloadProgress progress) {
+        PartProgress part = progress.nextPart();
+        if (part == null && clusterLeases.isEnabled()) {
+            part = claimPart(progress);
+        }
+        return part == null && splitEnabled ? stealPart(progress) : part;
+    }
+
+    // Whole parts free in the database come before splitting the parts this node runs
+    private PartProgress claimPart(DownloadProgress progress) {
+        if (progress.isStopping()) {
+            return null;
+        }
+        Download download = progress.getDownload();
+        List<Long> claimed = clusterLeases.claimParts(download.getId(), 1, progress.partIds());
+        if (claimed.isEmpty()) {
+            return null;
+        }
+        DownloadPart part = downloadPartRepository.findById(claimed.get(0)).orElse(null);
+        if (part == null) {
+            return null;
+        }
+        part.setDownload(download);
+        long lockRequested = System.nanoTime();
+        synchronized (download) {
+            downloadMetrics.recordLockWait(System.nanoTime() - lockRequested);
+            download.getParts().removeIf(existing -> existing.getId().equals(part.getId()));
+            download.getParts().add(part);
+        }
+        PartProgress claimedPart = progress.part(part);
+        if (!claimedPart.assign()) {
+            return null;
+        }
+        log.info("Download {} claimed part {}-{} on {}", download.getId(), part.getStartByte(), part.getEndByte(),
+                clusterLeases.getNodeId());
+        return claimedPart;
     }
 
-    private void monitorProgress(Download download, List<Future<Boolean>> futures) {
+    private PartProgress stealPart(DownloadProgress progress) {
+        PartProgress.Range range = progress.steal(minSplitSize);
+        if (range == null) {
+            return null;
+        }
+        Download download = progress.getDownload();
+        DownloadPart part = new DownloadPart();
+        part.setStartByte(range.startByte());
+        part.setEndByte(range.endByte());
+        part.setDownloadedBytes(0);
+        part.setDownload(download);
+        if (clusterLeases.isEnabled()) {
+            part.setLeaseOwner(clusterLeases.getNodeId());
+            part.setLeaseExpires(clusterLeases.deadline());
+        }
+        // Insert the new row before the victim's narrowed end is flushed, so a crash in between
+        // can only leave an overlap and never a gap in the persisted ranges
+        downloadPartRepository.save(part);
+        long lockRequested = System.nanoTime();
+        synchronized (download) {
+            downloadMetrics.recordLockWait(System.nanoTime() - lockRequested);
+            download.getParts().add(part);
+        }
+        progressJournal.flush();
+        PartProgress stolen = progress.part(part);
+        stolen.assign();
+        long suppressed = partLog.sample(download.getId());
+        if (suppressed >= 0) {
+            log.info("Download {} split off part {}-{} (split #{}){}", download.getId(), range.startByte(), range.endByte(),
+                    progress.getSplitCount(), suppressedNote(suppressed));
+        }
+        return stolen;
+    }
+
+    /**
+     * Downloads a part, reconnecting from its current offset after transient failures as
+     * decided by the {@link RetryPolicy}. Returns false once the part has run out of retries.
+     * With mirrors, a failed attempt continues on another mirror right away while one is ready.
+     */
+    private boolean downloadPart(DownloadProgress progress, PartProgress partProgress, SegmentWriter writer) {
+        Download download = progress.getDownload();
+        DownloadPart part = partProgress.getPart();
+        MirrorSet mirrors = progress.getMirrors();
+        int failures = 0;
         try {
-            boolean allCompleted = true;
-            for (Future<Boolean> future : futures) {
+            startPartDigest(download, partProgress);
+            while (true) {
+                long position = partProgress.getPosition();
+                MirrorSet.Mirror mirror = mirrors.acquire();
                 try {
-                    allCompleted &= future.get(30, TimeUnit.SECONDS); // Add timeout
-                } catch (TimeoutException e) {
-                    allCompleted = false;
-                    download.setErrorMessage("Download timeout after 30 seconds");
-                    break;
+                    fetchPart(progress, partProgress, writer, mirror);
+                    long suppressed = partLog.sample(download.getId());
+                    if (suppressed >= 0) {
+                        log.info("Download {} part {}-{} {}, progress: {}%{}", download.getId(), part.getStartByte(), partProgress.getEndByte(),
+                                progress.isStopping() ? "stopped" : partProgress.isHandedBack() ? "handed back" : "finished",
+                                progress.getPercent(), suppressedNote(suppressed));
+                    }
+                    return true;
+                } catch (IOException e) {
+                    String abortReason = partProgress.getAbortReason();
+                    String reason = abortReason != null ? abortReason : e.getMessage();
+                    String cause = DownloadMetrics.cause(e, abortReason);
+                    partProgress.endAttempt(reason);
+                    if (progress.isStopping()) {
+                        return true;
+                    }
+                    progress.connectionFailed();
+                    boolean failover = mirrors.failed(mirror);
+                    if (progress.reserveRetirement()) {
+                        // Over the SegmentTuner's target, drop this connection instead of retrying it
+                        partProgress.handBack();
+                        return true;
+                    }
+                    if (failover) {
+                        downloadMetrics.retry(cause);
+                        long suppressed = retryLog.sample(download.getId());
+                        if (suppressed >= 0) {
+                            log.warn("Download {} part {}-{} failed on {} ({}), continuing on another mirror{}", download.getId(),
+                                    part.getStartByte(), partProgress.getEndByte(), mirror.getUrl(), reason, suppressedNote(suppressed));
+                        }
+                        continue;
+                    }
+                    // A connection that made progress before dropping starts a fresh round of attempts
+                    failures = partProgress.getPosition() > position ? 1 : failures + 1;
+                    long delay = retryPolicy.delayMillis(failures, e);
+                    if (delay < 0) {
+                        downloadMetrics.partFailed(cause);
+                        failPart(progress, partProgress, reason, e);
+                        return false;
+                    }
+                    downloadMetrics.retry(cause);
+                    long suppressed = retryLog.sample(download.getId());
+                    if (suppressed >= 0) {
+                        log.warn("Download {} part {}-{} failed ({}), retry {} in {} ms{}", download.getId(), part.getStartByte(),
+                                partProgress.getEndByte(), reason, failures, delay, suppressedNote(suppressed));
+                    }
+                    progressJournal.flush();
+                    if (progress.awaitStop(delay)) {
+                        return true;
+                    }
+                } finally {
+                    mirrors.release(mirror);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            // Final flush so the persisted resume offset of this part matches the file
+            progressJournal.flush();
+        }
+    }
+
+    private void failPart(DownloadProgress progress, PartProgress partProgress, String reason, IOException e) {
+        Download download = progress.getDownload();
+        String errorMessage = "Error downloading part " + partProgress.getPart().getStartByte() + "-" + partProgress.getEndByte()
+                + " after " + partProgress.getAttempts() + " attempts: " + reason;
+        log.error(errorMessage, e);
+        progress.markFailed();
+        progressJournal.flush();
+        if (clusterLeases.isEnabled()) {
+            // Saving the copy of this node would write back stale offsets of parts other nodes run
+            download.setErrorMessage(errorMessage);
+            return;
+        }
+        long lockRequested = System.nanoTime();
+        synchronized (download) {
+            downloadMetrics.recordLockWait(System.nanoTime() - lockRequested);
+            download.setDownloadStatus(Download.DownloadStatus.FAILED);
+            download.setErrorMessage(errorMessage);
+            downloadRepository.save(download);
+        }
+    }
+
+    /**
+     * One connection attempt for the remaining range of a part, to the given mirror.
+     */
+    private void fetchPart(DownloadProgress progress, PartProgress partProgress, SegmentWriter writer,
+                           MirrorSet.Mirror mirror) throws IOException {
+        Download download = progress.getDownload();
+        MirrorSet mirrors = progress.getMirrors();
+        long position = partProgress.getPosition();
+        String validator = mirror.getValidator();
+        partProgress.startAttempt();
+        try (RangeResponse response = httpTransport().get(mirror.getUrl(), position, partProgress.getEndByte(), validator)) {
+            partProgress.connected(response::abort);
+            long timeToFirstByte = partProgress.getAttemptNanos();
+            progress.connected(timeToFirstByte);
+            downloadMetrics.recordTimeToFirstByte(mirror.getHost(), timeToFirstByte);
+            int responseCode = response.getStatusCode();
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL && responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(responseCode, RetryPolicy.parseRetryAfter(response.getHeader("Retry-After")));
+            }
+            if (responseCode == HttpURLConnection.HTTP_OK && validator != null) {
+                // If-Range did not match, the remote file changed since the first bytes were fetched
+                if (mirrors.disable(mirror)) {
+                    // Only this mirror moved on, the others still serve the bytes on disk
+                    response.abort();
+                    throw new IOException("Mirror " + mirror.getUrl() + " now serves a different version of the file");
+                }
+                log.warn("Download {} changed on the server, discarding partial data", download.getId());
+                progress.markStale();
+                response.abort();
+                partProgress.endAttempt(null);
+                return;
+            }
+            if (responseCode == HttpURLConnection.HTTP_OK && position > 0) {
+                throw new IOException("Server ignored range request for bytes from " + position);
+            }
+
+            InputStream in = response.getBody();
+            BandwidthLimiter.Throttle throttle = bandwidthLimiter.throttle(download.getId(), mirror.getHost());
+            Counter hostBytes = downloadMetrics.hostBytes(mirror.getHost());
+            boolean sampleMirror = mirrors.size() > 1;
+            writer.write(download, position, in, new ChunkListener() {
+                // Bytes received from the mirror since the start of the current rate sample
+                private long sampleBytes;
+                private long sampleStart = System.nanoTime();
+
+                @Override
+                public int claim(int bytes) {
+                    if (progress.isStopping()) {
+                        return 0;
+                    }
+                    if (partProgress.isHandedBack() || progress.reserveRetirement()) {
+                        // One connection fewer, the part stays where it is for another worker
+                        partProgress.handBack();
+                        return 0;
+                    }
+                    // The end can move down while we read if another worker steals from us
+                    return partProgress.claim(bytes);
+                }
+
+                @Override
+                public void durable(long position) {
+                    partProgress.durableUpTo(position);
+                }
+
+                @Override
+                public void onChunk(ByteBuffer chunk) throws IOException {
+                    int bytes = chunk.remaining();
+                    partProgress.hash(chunk);
+                    // Counted in memory only, the journal persists it in batches
+                    progressJournal.record(progress, partProgress, bytes);
+                    hostBytes.increment(bytes);
+                    if (sampleMirror) {
+                        sampleBytes += bytes;
+                        long now = System.nanoTime();
+                        if (now - sampleStart >= MirrorSet.SAMPLE_NANOS) {
+                            mirrors.sample(mirror, sampleBytes, now - sampleStart);
+                            sampleBytes = 0;
+                            sampleStart = now;
+                            if (mirrors.isLagging(mirror)) {
+                                throw new MirrorSet.SlowMirrorException(mirror);
+                            }
+                        }
+                    }
+                    if (progressLog.sample(download.getId()) >= 0) {
+                        log.info("Download {} at {}%, {} of {} bytes with {} workers", download.getId(), progress.getPercent(),
+                                progress.getDownloadedSize(), download.getTotalSize(), progress.getWorkers());
+                    }
+                    if (throttle != null) {
+                        // Not reading holds the sender back through TCP flow control
+                        long wait = throttle.reserve(bytes);
+                        if (wait > 0) {
+                            partProgress.throttled(wait);
+                            throttle.await(wait, progress::isStopping);
+                        }
+                    }
                 }
+            });
+        }
+        if (!partProgress.isFinished() && !progress.isStopping() && !partProgress.isHandedBack()) {
+            throw new IOException("Connection closed at byte " + partProgress.getPosition() + " before the end of the part");
+        }
+        partProgress.endAttempt(null);
+        if (partProgress.getPosition() > partProgress.getEndByte()) {
+            partProgress.completeDigest();
+        }
+    }
+
+    private static String suppressedNote(long suppressed) {
+        return suppressed > 0 ? " (" + suppressed + " similar suppressed)" : "";
+    }
+
+    private HttpTransport httpTransport() {
+        return httpTransports.stream()
+                .filter(transport -> transport.getName().equalsIgnoreCase(httpTransportName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown HTTP transport: " + httpTransportName));
+    }
+
+    private SegmentWriter segmentWriter(Download download) {
+        String engine = download.getWriteEngine() != null ? download.getWriteEngine() : defaultWriteEngine;
+        return segmentWriters.stream()
+                .filter(writer -> writer.getName().equalsIgnoreCase(engine))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown write engine: " + engine));
+    }
+
+    // Runs once every part worker of the download has returned
+    private void monitorProgress(DownloadProgress progress, SegmentWriter writer) {
+        Download download = progress.getDownload();
+        if (clusterLeases.isEnabled()) {
+            finishClaimedRun(progress, writer);
+            return;
+        }
+        try {
+            boolean allCompleted = !progress.isFailed();
+            if (progress.getMirrors() != null && progress.getMirrors().size() > 1) {
+                log.info("Download {} mirrors: {}", download.getId(), progress.getMirrors().getMirrors());
+            }
+            progressJournal.complete(progress);
+            writer.release(download);
+
+            if (!allCompleted || !progress.isFinished() || progress.isStale()) {
+                checksumVerifier.cancel(download.getId());
+                archiveExtractor.cancel(download.getId());
             }
 
-            if (allCompleted) {
-                download.setDownloadStatus(Download.DownloadStatus.COMPLETED);
-                download.setCompletionTime(LocalDateTime.now());
-                download.setErrorMessage(null);
+            if (progress.isStale()) {
+                resetProgress(download);
+                download.setDownloadStatus(Download.DownloadStatus.FAILED);
+                download.setErrorMessage("File changed on the server, resume will restart the download");
+                downloadMetrics.downloadFailed("stale");
+            } else if (allCompleted && !progress.isFinished()) {
+                download.setDownloadStatus(Download.DownloadStatus.PAUSED);
+            } else if (allCompleted && checksumVerifier.isEnabled()) {
+                // Stays IN_PROGRESS until the rest of the file is hashed
+                checksumVerifier.finish(progress).whenComplete((result, error) -> completeVerified(download, result, error));
+                return;
+            } else if (allCompleted) {
+                markCompleted(download);
             } else {
                 download.setDownloadStatus(Download.DownloadStatus.FAILED);
                 if (download.getErrorMessage() == null) {
                     download.setErrorMessage("One or more download parts failed");
                 }
+                downloadMetrics.downloadFailed("part");
             }
             downloadRepository.save(download);
+            progressBroadcaster.publish(download);
+            if (download.getDownloadStatus() == Download.DownloadStatus.COMPLETED) {
+                archiveExtractor.completed(download);
+            }
         } catch (Exception e) {
             log.error("Error monitoring download progress: " + e.getMessage(), e);
+            checksumVerifier.cancel(download.getId());
+            archiveExtractor.cancel(download.getId());
+            progressJournal.complete(progress);
+            writer.release(download);
             download.setDownloadStatus(Download.DownloadStatus.FAILED);
             download.setErrorMessage("Error monitoring progress: " + e.getMessage());
+            downloadMetrics.downloadFailed("error");
             downloadRepository.save(download);
+            progressBroadcaster.publish(download);
         }
     }
 
+    /**
+     * Wraps up the run of a cluster node over its claimed parts: their offsets go to the
+     * database and their leases are released. Only the outcome of the run is written to the
+     * download, with conditional updates; whichever node finds all parts written finishes it.
+     */
+    private void finishClaimedRun(DownloadProgress progress, SegmentWriter writer) {
+        Download download = progress.getDownload();
+        Long id = download.getId();
+        try {
+            progressJournal.complete(progress);
+            writer.release(download);
+            clusterLeases.release(progress.partIds());
+
+            if (progress.isStale()) {
+                clusterLeases.resetProgress(id);
+                clusterLeases.markStatus(id, Download.DownloadStatus.FAILED, "File changed on the server, resume will restart the download");
+                downloadMetrics.downloadFailed("stale");
+            } else if (progress.isFailed()) {
+                clusterLeases.markStatus(id, Download.DownloadStatus.FAILED, download.getErrorMessage() != null
+                        ? download.getErrorMessage() : "One or more download parts failed");
+                downloadMetrics.downloadFailed("part");
+            } else if (progress.isFenced()) {
+                log.warn("Download {} stopped on {}, another node took over one of its parts", id, clusterLeases.getNodeId());
+            } else if (!progress.isPauseRequested() && clusterLeases.isFinalizable(id)) {
+                finalizeClaimed(id);
+                return;
+            }
+            downloadRepository.findById(id).ifPresent(progressBroadcaster::publish);
+        } catch (Exception e) {
+            log.error("Error finishing the run of download {}: {}", id, e.getMessage(), e);
+            progressJournal.complete(progress);
+            writer.release(download);
+            clusterLeases.release(progress.partIds());
+            clusterLeases.markStatus(id, Download.DownloadStatus.FAILED, "Error monitoring progress: " + e.getMessage());
+            downloadMetrics.downloadFailed("error");
+        }
+    }
+
+    /**
+     * Completes a download of the cluster whose parts are all written, possibly by several
+     * nodes: claims it, verifies the whole file and extracts it. Does nothing if another node
+     * finishes it or it is no longer queued or running.
+     */
+    public void finalizeClaimed(Long id) {
+        if (!clusterLeases.claimDownload(id)) {
+            return;
+        }
+        boolean released = true;
+        try {
+            Download download = downloadRepository.findById(id).orElse(null);
+            if (download == null || !clusterLeases.isFinalizable(id)
+                    || (download.getDownloadStatus() != Download.DownloadStatus.PENDING
+                    && download.getDownloadStatus() != Download.DownloadStatus.IN_PROGRESS)) {
+                return;
+            }
+            log.info("Download {} finishing on {}", id, clusterLeases.getNodeId());
+            if (checksumVerifier.isEnabled()) {
+                // Read back from the shared storage, no node saw all bytes arrive
+                DownloadProgress progress = new DownloadProgress(download);
+                checksumVerifier.start(progress);
+                released = false;
+                checksumVerifier.finish(progress).whenComplete((result, error) -> {
+                    try {
+                        completeVerified(download, result, error);
+                    } finally {
+                        clusterLeases.releaseDownload(id);
+                    }
+                });
+                return;
+            }
+            markCompleted(download);
+            downloadRepository.save(download);
+            progressBroadcaster.publish(download);
+            archiveExtractor.completed(download);
+        } catch (Exception e) {
+            log.error("Error finishing download {}: {}", id, e.getMessage(), e);
+            clusterLeases.markStatus(id, Download.DownloadStatus.FAILED, "Error finishing download: " + e.getMessage());
+            downloadMetrics.downloadFailed("error");
+        } finally {
+            if (released) {
+                clusterLeases.releaseDownload(id);
+            }
+        }
+    }
+
+    /**
+     * Value for the {@code If-Range} header. Weak ETags are not allowed there, so those fall
+     * back to {@code Last-Modified}.
+     */
+    private static String ifRangeValidator(String etag, String lastModified) {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified;
+    }
+
+    private void completeVerified(Download download, ChecksumVerifier.Result result, Throwable error) {
+        try {
+            if (error != null) {
+                checksumVerifier.forget(download.getId());
+                download.setDownloadStatus(Download.DownloadStatus.FAILED);
+                download.setErrorMessage("Could not verify the downloaded file: " + error.getMessage());
+                downloadMetrics.downloadFailed("verification");
+            } else if (result.matches()) {
+                checksumVerifier.forget(download.getId());
+                download.setChecksum(result.checksum());
+                markCompleted(download);
+                downloadCache.store(download);
+            } else if (!result.corruptParts().isEmpty() && checksumVerifier.allowRefetch(download.getId())) {
+                // What was extracted so far includes the corrupt bytes
+                archiveExtractor.cancel(download.getId());
+                refetchParts(download, result.corruptParts());
+                return;
+            } else {
+                checksumVerifier.forget(download.getId());
+                download.setChecksum(result.checksum());
+                download.setDownloadStatus(Download.DownloadStatus.FAILED);
+                download.setErrorMessage("Checksum mismatch: expected " + download.getExpectedChecksum() + ", got " + result.checksum());
+                downloadMetrics.downloadFailed("checksum");
+            }
+            downloadRepository.save(download);
+            progressBroadcaster.publish(download);
+            if (download.getDownloadStatus() == Download.DownloadStatus.COMPLETED) {
+                archiveExtractor.completed(download);
+            } else {
+                archiveExtractor.cancel(download.getId());
+            }
+        } catch (Exception e) {
+            log.error("Error completing download {}: {}", download.getId(), e.getMessage(), e);
+            archiveExtractor.cancel(download.getId());
+        }
+    }
+
+    private void markCompleted(Download download) {
+        download.setDownloadStatus(Download.DownloadStatus.COMPLETED);
+        download.setCompletionTime(LocalDateTime.now());
+        download.setErrorMessage(null);
+    }
+
+    // Downloads only the segments whose bytes on disk differ from what was received
+    private void refetchParts(Download download, List<DownloadPart> corruptParts) {
+        long corruptBytes = 0;
+        for (DownloadPart part : corruptParts) {
+            corruptBytes += part.getDownloadedBytes();
+            part.setDownloadedBytes(0);
+            part.setDigest(null);
+        }
+        download.setDownloadedSize(download.getDownloadedSize() - corruptBytes);
+        download.setProgress((int) (download.getDownloadedSize() * 100 / download.getTotalSize()));
+        download.setDownloadStatus(Download.DownloadStatus.PENDING);
+        log.warn("Download {} failed verification, re-fetching {} corrupt parts ({} bytes)", download.getId(), corruptParts.size(), corruptBytes);
+        downloadRepository.save(download);
+        enqueue(download);
+    }
+
+    private void startPartDigest(Download download, PartProgress partProgress) {
+        try {
+            checksumVerifier.startPart(download, partProgress);
+        } catch (IOException e) {
+            // Without a part digest a corrupt part can't be singled out, the file is still verified
+            log.warn("Download {} part {}: could not hash bytes already on disk: {}", download.getId(),
+                    partProgress.getPart().getStartByte(), e.getMessage());
+        }
+    }
+
+    private void resetProgress(Download download) {
+        for (DownloadPart part : download.getParts()) {
+            part.setDownloadedBytes(0);
+            part.setDigest(null);
+        }
+        download.setDownloadedSize(0);
+        download.setProgress(0);
+        download.setEtag(null);
+        download.setLastModified(null);
+    }
+
     private String getFileNameFromUrl(String fileUrl, String contentType) {
         try {
             // Get the filename from the URL
@@ -362,25 +1456,183 @@ public class DownloadService {
     }
 
     public List<Download> getAllDownloads() {
-        return downloadRepository.findAll();
+        List<Download> downloads = downloadRepository.findAll();
+        downloads.forEach(this::applyLiveProgress);
+        return downloads;
+    }
+
+    public DownloadPage listDownloads(DownloadQuery query) {
+        DownloadPage page = downloadRepository.findPage(query);
+        if (query.isIncludeParts() && !page.getItems().isEmpty()) {
+            // One query for the whole page rather than one per download
+            List<Long> ids = page.getItems().stream().map(DownloadSummary::getId).toList();
+            Map<Long, List<DownloadPart>> partsByDownload = downloadPartRepository.findByDownloadIdInOrderByStartByte(ids)
+                    .stream()
+                    .collect(Collectors.groupingBy(part -> part.getDownload().getId()));
+            for (DownloadSummary summary : page.getItems()) {
+                summary.setParts(partsByDownload.getOrDefault(summary.getId(), List.of()));
+            }
+        }
+        for (DownloadSummary summary : page.getItems()) {
+            DownloadProgress progress = progressJournal.get(summary.getId());
+            if (progress != null) {
+                summary.setDownloadedSize(progress.getDownloadedSize());
+                summary.setProgress(progress.getPercent());
+                if (summary.getParts() != null) {
+                    summary.getParts().forEach(progress::applyTo);
+                }
+            }
+        }
+        return page;
+    }
+
+    public List<DownloadPart> getDownloadParts(Long id) {
+        if (!downloadRepository.existsById(id)) {
+            return null;
+        }
+        List<DownloadPart> parts = downloadPartRepository.findByDownloadIdOrderByStartByte(id);
+        DownloadProgress progress = progressJournal.get(id);
+        if (progress != null) {
+            parts.forEach(progress::applyTo);
+        }
+        return parts;
+    }
+
+    /**
+     * Changes the bandwidth cap of a download, also while it is running.
+     *
+     * @return false if there is no such download
+     */
+    public boolean setBandwidthLimit(Long id, long maxBytesPerSecond) {
+        if (downloadRepository.updateMaxBytesPerSecond(id, maxBytesPerSecond) == 0) {
+            return false;
+        }
+        DownloadProgress progress = progressJournal.get(id);
+        if (progress != null) {
+            // Keep the running copy in step, it is saved again when the download stops
+            progress.getDownload().setMaxBytesPerSecond(maxBytesPerSecond);
+        }
+        bandwidthLimiter.setDownloadLimit(id, maxBytesPerSecond);
+        return true;
     }
 
     public Download getDownload(Long id) {
-        return downloadRepository.findById(id).orElse(null);
+        Download download = downloadRepository.findById(id).orElse(null);
+        if (download != null) {
+            applyLiveProgress(download);
+        }
+        return download;
+    }
+
+    // The rows of a running download only get its progress when it stops
+    private void applyLiveProgress(Download download) {
+        DownloadProgress progress = progressJournal.get(download.getId());
+        if (progress != null) {
+            progress.applyTo(download);
+        }
     }
 
     public void pauseDownload(Long id) {
+        if (clusterLeases.isEnabled()) {
+            // Nodes running parts of it stop at their next heartbeat, this one right away
+            boolean paused = clusterLeases.markStatus(id, Download.DownloadStatus.PAUSED, null);
+            stopClaimed(id);
+            if (paused) {
+                downloadRepository.findById(id).ifPresent(progressBroadcaster::publish);
+            }
+            return;
+        }
+        DownloadProgress progress = progressJournal.get(id);
+        if (progress != null) {
+            // Workers stop cooperatively, the status flips once their offsets are flushed
+            progress.requestPause();
+            return;
+        }
+        downloadScheduler.cancel(id);
         downloadRepository.findById(id).ifPresent(download -> {
+            if (download.getDownloadStatus() != Download.DownloadStatus.PENDING
+                    && download.getDownloadStatus() != Download.DownloadStatus.IN_PROGRESS) {
+                return;
+            }
             download.setDownloadStatus(Download.DownloadStatus.PAUSED);
             downloadRepository.save(download);
+            progressBroadcaster.publish(download);
         });
     }
 
     public void resumeDownload(Long id) {
+        if (progressJournal.get(id) != null) {
+            return; // Still running or still stopping
+        }
         downloadRepository.findById(id).ifPresent(download -> {
-            download.setDownloadStatus(Download.DownloadStatus.IN_PROGRESS);
+            if (download.getDownloadStatus() == Download.DownloadStatus.COMPLETED
+                    || download.getDownloadStatus() == Download.DownloadStatus.PENDING) {
+                return;
+            }
+            if (download.getParts().isEmpty()) {
+                // A batch entry paused or failed before its probe, or a small file that failed,
+                // starts over with a new probe
+                boolean unprobed = download.getBatchId() != null && download.getTotalSize() == 0;
+                if (unprobed || (download.getTotalSize() > 0 && !download.isFromCache())) {
+                    if (!unprobed) {
+                        // It may not be small any more
+                        download.setThreadCount(0);
+                    }
+                    deleteQuietly(download.getFilePath());
+                    download.setDownloadStatus(Download.DownloadStatus.PENDING);
+                    download.setErrorMessage(null);
+                    downloadRepository.save(download);
+                    probeLater(id, download.getHost());
+                }
+                return;
+            }
+            download.setDownloadStatus(Download.DownloadStatus.PENDING);
             downloadRepository.save(download);
-            startMultiThreadedDownload(download);
+            enqueue(download);
         });
     }
+
+    private static void deleteQuietly(String filePath) {
+        if (filePath == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(Paths.get(filePath));
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", filePath, e.getMessage());
+        }
+    }
+
+    /**
+     * Stops what this cluster node does for a download that was paused, failed or completed,
+     * possibly on another node.
+     */
+    public void stopClaimed(Long id) {
+        DownloadProgress progress = progressJournal.get(id);
+        if (progress != null) {
+            progress.requestPause();
+        } else if (downloadScheduler.cancel(id)) {
+            clusterRuns.remove(id);
+        }
+    }
+
+    /**
+     * Downloads this cluster node queued or runs parts of.
+     */
+    public Set<Long> getClusterRuns() {
+        return Set.copyOf(clusterRuns);
+    }
+
+    /**
+     * Re-enqueues a download that was left running by a previous process. The caller has
+     * already checked the part offsets against the file on disk.
+     */
+    public void recoverDownload(Download download) {
+        if (progressJournal.get(download.getId()) != null) {
+            return;
+        }
+        download.setDownloadStatus(Download.DownloadStatus.PENDING);
+        downloadRepository.save(download);
+        enqueue(download);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.downloader.service;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Unexpected HTTP status from the origin. Carries the {@code Retry-After} delay, if the server
+ * sent one, so the {@link RetryPolicy} can honor it.
+ */
+public class HttpStatusException extends IOException {
+
+    private final int statusCode;
+    private final Duration retryAfter;
+
+    public HttpStatusException(int statusCode, Duration retryAfter) {
+        super("Server returned HTTP response code: " + statusCode);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
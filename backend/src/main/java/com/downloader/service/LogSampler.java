@@ -0,0 +1,43 @@
+package com.downloader.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limit for a noisy log statement. Per key, typically a download id, at most one message
+ * per interval gets through and reports how many were dropped since the previous one.
+ */
+class LogSampler {
+
+    private final long intervalNanos;
+    private final Map<Object, Window> windows = new ConcurrentHashMap<>();
+
+    LogSampler(long intervalMillis) {
+        this.intervalNanos = intervalMillis * 1_000_000L;
+    }
+
+    /**
+     * @return -1 if the message should be dropped, otherwise the number of messages dropped
+     * before it
+     */
+    long sample(Object key) {
+        Window window = windows.computeIfAbsent(key, k -> new Window());
+        long now = System.nanoTime();
+        long next = window.next.get();
+        if (now - next < 0 || !window.next.compareAndSet(next, now + intervalNanos)) {
+            window.suppressed.incrementAndGet();
+            return -1;
+        }
+        return window.suppressed.getAndSet(0);
+    }
+
+    void forget(Object key) {
+        windows.remove(key);
+    }
+
+    private static final class Window {
+        private final AtomicLong next = new AtomicLong(System.nanoTime());
+        private final AtomicLong suppressed = new AtomicLong();
+    }
+}
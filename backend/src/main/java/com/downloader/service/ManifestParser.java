@@ -0,0 +1,97 @@
+package com.downloader.service;
+
+import com.downloader.dto.DownloadRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Parses one line of a batch manifest. A line is either a JSON object with the fields of a
+ * {@link DownloadRequest}, or a URL followed by optional whitespace separated fields in any
+ * order: a file name, a checksum ({@code sha256:<hex>}, {@code md5:<hex>} or bare hex), an
+ * integer priority and further http(s) URLs as mirrors of the first. Blank lines and lines
+ * starting with {@code #} are skipped.
+ */
+class ManifestParser {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern PRIORITY = Pattern.compile("-?\\d{1,9}");
+    private static final Pattern CHECKSUM = Pattern.compile("([A-Za-z0-9-]+:)?[0-9a-fA-F]{32,}");
+    private static final Pattern URL = Pattern.compile("(?i)https?://.+");
+
+    private final ObjectMapper objectMapper;
+
+    ManifestParser(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return the request of the line, or null for a blank or comment line
+     * @throws IllegalArgumentException if the line is not a valid entry
+     */
+    DownloadRequest parse(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        DownloadRequest request = trimmed.startsWith("{") ? parseJson(trimmed) : parsePlain(trimmed);
+        validateUrl(request.getUrl());
+        if (request.getMirrors() != null) {
+            request.getMirrors().forEach(ManifestParser::validateUrl);
+        }
+        if (request.getChecksum() != null && !request.getChecksum().isBlank()) {
+            Checksum.parse(request.getChecksum());
+        }
+        return request;
+    }
+
+    private DownloadRequest parseJson(String line) {
+        try {
+            return objectMapper.readValue(line, DownloadRequest.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getOriginalMessage());
+        }
+    }
+
+    private DownloadRequest parsePlain(String line) {
+        String[] fields = WHITESPACE.split(line);
+        DownloadRequest request = new DownloadRequest(fields[0], null, null);
+        for (int i = 1; i < fields.length; i++) {
+            String field = fields[i];
+            if (request.getPriority() == null && PRIORITY.matcher(field).matches()) {
+                request.setPriority(Integer.parseInt(field));
+            } else if (URL.matcher(field).matches()) {
+                if (request.getMirrors() == null) {
+                    request.setMirrors(new ArrayList<>());
+                }
+                request.getMirrors().add(field);
+            } else if (request.getChecksum() == null && CHECKSUM.matcher(field).matches()) {
+                request.setChecksum(field);
+            } else if (request.getFileName() == null) {
+                request.setFileName(field);
+            } else {
+                throw new IllegalArgumentException("Unexpected field: " + field);
+            }
+        }
+        return request;
+    }
+
+    private static void validateUrl(String url) {
+        if (url == null || url.isBlank()) {
+            throw new IllegalArgumentException("Missing url");
+        }
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid URL: " + url);
+        }
+        String scheme = uri.getScheme();
+        if (scheme == null || !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https")) || uri.getHost() == null) {
+            throw new IllegalArgumentException("Not an http(s) URL: " + url);
+        }
+    }
+}
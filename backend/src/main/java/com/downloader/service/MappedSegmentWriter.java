@@ -0,0 +1,160 @@
+package com.downloader.service;
+
+import com.downloader.model.Download;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory-mapped write path for very large files. Each part maps the file in windows of
+ * {@code download.mmap.window-size} from its current offset and reads the response body
+ * straight into the mapping, so there is no intermediate buffer and no write call per chunk.
+ * <p>
+ * Dirty pages are forced to disk every {@code download.mmap.checkpoint-bytes} and when the
+ * part stops, and only then reported as durable; the {@link ProgressJournal} never persists a
+ * resume offset past the last checkpoint. Its {@code download.disk.write} timer measures those
+ * forces. Windows are unmapped by the garbage collector once a part has moved past them.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class MappedSegmentWriter implements SegmentWriter {
+
+    public static final String NAME = "mmap";
+
+    private final DownloadMetrics downloadMetrics;
+    private final Map<Long, FileChannel> channels = new ConcurrentHashMap<>();
+
+    @Value("${download.chunk.size:1048576}")
+    private int chunkSize;
+
+    @Value("${download.mmap.window-size:67108864}") // 64MB, at most 2GB per mapping
+    private long windowSize;
+
+    @Value("${download.mmap.checkpoint-bytes:16777216}")
+    private long checkpointBytes;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean forcesCheckpoints() {
+        return true;
+    }
+
+    @Override
+    public long write(Download download, long position, InputStream in, ChunkListener listener) throws IOException {
+        FileChannel channel = channel(download);
+        ReadableByteChannel source = Channels.newChannel(in);
+        Timer forceTimer = downloadMetrics.diskWrite(NAME);
+        long fileSize = download.getTotalSize();
+        long written = 0;
+        MappedByteBuffer window = null;
+        long windowStart = position;
+        long checkpoint = position;
+        try {
+            while (position < fileSize) {
+                if (window == null || !window.hasRemaining()) {
+                    if (window != null && position > checkpoint) {
+                        checkpoint = force(window, windowStart, checkpoint, position, forceTimer, listener);
+                    }
+                    windowStart = position;
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart,
+                            Math.min(Math.min(windowSize, Integer.MAX_VALUE), fileSize - windowStart));
+                }
+                // Claimed before reading, so a read never lands in a range another worker
+                // split off while it blocked
+                int allowed = listener.claim((int) Math.min(chunkSize, window.remaining()));
+                if (allowed <= 0) {
+                    break;
+                }
+                ByteBuffer target = window.slice(window.position(), allowed);
+                int bytesRead = fill(source, target);
+                if (bytesRead > 0) {
+                    window.position(window.position() + bytesRead);
+                    position += bytesRead;
+                    written += bytesRead;
+                    listener.onChunk(target.flip());
+                }
+                if (bytesRead < allowed) {
+                    // The response ended; the part's next attempt claims the rest again
+                    break;
+                }
+                if (position - checkpoint >= checkpointBytes) {
+                    checkpoint = force(window, windowStart, checkpoint, position, forceTimer, listener);
+                }
+            }
+        } finally {
+            if (window != null && position > checkpoint) {
+                force(window, windowStart, checkpoint, position, forceTimer, listener);
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public void release(Download download) {
+        FileChannel channel = channels.remove(download.getId());
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Error closing file channel for download {}: {}", download.getId(), e.getMessage());
+            }
+        }
+    }
+
+    // Forces the bytes written since the last checkpoint, returns the new checkpoint
+    private static long force(MappedByteBuffer window, long windowStart, long checkpoint, long position,
+                              Timer forceTimer, ChunkListener listener) {
+        int from = (int) (Math.max(checkpoint, windowStart) - windowStart);
+        long start = System.nanoTime();
+        window.force(from, (int) (position - windowStart) - from);
+        forceTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        listener.durable(position);
+        return position;
+    }
+
+    private FileChannel channel(Download download) throws IOException {
+        try {
+            return channels.computeIfAbsent(download.getId(), id -> {
+                try {
+                    // Mapping read-write needs a channel open for reading as well
+                    return FileChannel.open(Paths.get(download.getFilePath()), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Reads until the buffer is full or the stream ends, returns the number of bytes read
+    private static int fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) == -1) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+}
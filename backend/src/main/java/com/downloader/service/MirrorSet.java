@@ -0,0 +1,204 @@
+package com.downloader.service;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The source URLs a running download fetches its parts from: its own URL first, then the
+ * mirrors that passed validation. Every connection attempt asks for a mirror; a mirror nobody
+ * has measured yet is tried first, otherwise the one with the most throughput per connection
+ * relative to the connections it already has. Connections, and with them the segments, are so
+ * spread in proportion to the rate measured on each mirror.
+ * <p>
+ * A mirror whose attempt fails, or whose connections fall far behind the best mirror, cools
+ * down for a while and the part continues on another mirror right away. After too many
+ * failures in a row a mirror is dropped for the rest of the run; the last one left is kept.
+ */
+class MirrorSet {
+
+    // Weight of a new rate sample in the moving average
+    private static final double RATE_SMOOTHING = 0.2;
+    // Shortest span a rate sample covers, reads of buffered data make shorter ones meaningless
+    static final long SAMPLE_NANOS = 250_000_000L;
+
+    private final List<Mirror> mirrors;
+    private final long cooldownNanos;
+    private final int maxFailures;
+    private final double slowRatio;
+
+    MirrorSet(List<Mirror> mirrors, long cooldownMillis, int maxFailures, double slowRatio) {
+        this.mirrors = List.copyOf(mirrors);
+        this.cooldownNanos = cooldownMillis * 1_000_000L;
+        this.maxFailures = maxFailures;
+        this.slowRatio = slowRatio;
+    }
+
+    int size() {
+        return mirrors.size();
+    }
+
+    List<Mirror> getMirrors() {
+        return mirrors;
+    }
+
+    /**
+     * Picks the mirror for a new connection attempt; {@link #release} once it has ended.
+     */
+    synchronized Mirror acquire() {
+        long now = System.nanoTime();
+        Mirror best = null;
+        for (Mirror mirror : mirrors) {
+            if (!mirror.isReady(now)) {
+                continue;
+            }
+            if (best == null || mirror.isPreferredTo(best)) {
+                best = mirror;
+            }
+        }
+        if (best == null) {
+            // Everything is cooling down, take the enabled mirror that recovers first
+            for (Mirror mirror : mirrors) {
+                if (!mirror.disabled && (best == null || mirror.coolUntil - best.coolUntil < 0)) {
+                    best = mirror;
+                }
+            }
+        }
+        best.active++;
+        return best;
+    }
+
+    synchronized void release(Mirror mirror) {
+        mirror.active--;
+    }
+
+    /**
+     * Folds the rate one connection got over at least {@link #SAMPLE_NANOS} into the mirror's
+     * per-connection rate. Data arriving also ends a run of failures.
+     */
+    synchronized void sample(Mirror mirror, long bytes, long nanos) {
+        mirror.bytes += bytes;
+        mirror.failures = 0;
+        if (nanos <= 0) {
+            return;
+        }
+        double rate = bytes * 1e9 / nanos;
+        mirror.rate = mirror.rate == 0 ? rate : mirror.rate + RATE_SMOOTHING * (rate - mirror.rate);
+    }
+
+    /**
+     * Records a failed attempt on a mirror.
+     *
+     * @return true if another mirror can take over right away
+     */
+    synchronized boolean failed(Mirror mirror) {
+        mirror.failures++;
+        mirror.coolUntil = System.nanoTime() + cooldownNanos * mirror.failures;
+        if (mirror.failures >= maxFailures) {
+            disable(mirror);
+        }
+        return hasReadyOther(mirror);
+    }
+
+    /**
+     * Drops a mirror for the rest of the run, e.g. because it serves another version.
+     *
+     * @return false if it is the last mirror, which is kept
+     */
+    synchronized boolean disable(Mirror mirror) {
+        for (Mirror other : mirrors) {
+            if (other != mirror && !other.disabled) {
+                mirror.disabled = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether connections to the mirror get less than {@code download.mirror.slow-ratio} of
+     * the rate of the best mirror that could take them over.
+     */
+    synchronized boolean isLagging(Mirror mirror) {
+        if (mirror.rate == 0) {
+            return false;
+        }
+        long now = System.nanoTime();
+        for (Mirror other : mirrors) {
+            if (other != mirror && other.isReady(now) && other.rate * slowRatio > mirror.rate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasReadyOther(Mirror mirror) {
+        long now = System.nanoTime();
+        for (Mirror other : mirrors) {
+            if (other != mirror && other.isReady(now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One source URL with the {@code If-Range} validator it announced and what connections to
+     * it have seen during this run. Guarded by the enclosing set.
+     */
+    static class Mirror {
+        private final String url;
+        private final String host;
+        private final String validator;
+        private int active;
+        private double rate; // bytes per second per connection, 0 until measured
+        private long bytes;
+        private int failures;
+        private long coolUntil = System.nanoTime();
+        private boolean disabled;
+
+        Mirror(String url, String validator) {
+            this.url = url;
+            this.host = DownloadScheduler.hostOf(url);
+            this.validator = validator;
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        String getHost() {
+            return host;
+        }
+
+        String getValidator() {
+            return validator;
+        }
+
+        private boolean isReady(long now) {
+            return !disabled && now - coolUntil >= 0;
+        }
+
+        // Unmeasured mirrors first, spread by their connections, then by rate per connection held
+        private boolean isPreferredTo(Mirror other) {
+            if ((rate == 0) != (other.rate == 0)) {
+                return rate == 0;
+            }
+            return rate == 0 ? active < other.active : rate / (active + 1) > other.rate / (other.active + 1);
+        }
+
+        @Override
+        public String toString() {
+            return url + " (" + bytes + " bytes, " + (long) rate + " B/s per connection)";
+        }
+    }
+
+    /**
+     * Ends a connection to a mirror that fell far behind the others, so the part continues on
+     * a faster one.
+     */
+    static class SlowMirrorException extends IOException {
+        SlowMirrorException(Mirror mirror) {
+            super("Mirror " + mirror.getUrl() + " fell behind the other mirrors");
+        }
+    }
+}
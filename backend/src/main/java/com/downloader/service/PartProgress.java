@@ -0,0 +1,317 @@
+package com.downloader.service;
+
+import com.downloader.model.DownloadPart;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory progress counter for a single {@link DownloadPart}. Part workers only touch the
+ * atomics here; the {@link ProgressJournal} copies the values back to the entity and the
+ * database in batches.
+ * <p>
+ * The end of the range can shrink while the part is downloading when another worker steals
+ * its far half, so writers {@link #claim(int) claim} bytes before writing them.
+ */
+public class PartProgress {
+
+    private final DownloadPart part;
+    private final AtomicLong downloadedBytes;
+    // Bytes forced to stable storage, only advanced by writers with checkpoints
+    private final AtomicLong durableBytes;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicBoolean assigned = new AtomicBoolean();
+
+    private final AtomicInteger attempts;
+    private volatile String lastError;
+
+    // Guarded by this, only contended while the part is being split
+    private long endByte;
+    private long claimedUpTo;
+
+    // Open connection of the current attempt, aborted by the StallDetector
+    private volatile Runnable abortConnection;
+    private volatile String abortReason;
+    private volatile long attemptStartNanos;
+    // Set when the worker gives the part back mid-range so that another can continue it
+    private volatile boolean handedBack;
+    // Throughput window of the StallDetector, restarted on every new connection
+    private volatile long windowStartNanos;
+    private long windowStartBytes;
+    // Time spent waiting on the BandwidthLimiter, not held against the connection
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private long windowStartThrottledNanos;
+
+    // Digest of the bytes written so far, only touched by the worker that owns the part
+    private MessageDigest digest;
+    private volatile String digestHex;
+
+    PartProgress(DownloadPart part) {
+        this.part = part;
+        this.downloadedBytes = new AtomicLong(part.getDownloadedBytes());
+        this.durableBytes = new AtomicLong(part.getDownloadedBytes());
+        this.attempts = new AtomicInteger(part.getAttempts());
+        this.lastError = part.getLastError();
+        this.endByte = part.getEndByte();
+        this.claimedUpTo = part.getStartByte() + part.getDownloadedBytes();
+        this.digestHex = part.getDigest();
+    }
+
+    public DownloadPart getPart() {
+        return part;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    /**
+     * Downloaded bytes that may be persisted as the resume offset. With checkpoints that is
+     * only what has been forced to disk, so a crash never leaves a recorded offset past the
+     * bytes that survived it.
+     */
+    long getPersistableBytes(boolean checkpointed) {
+        long downloaded = downloadedBytes.get();
+        return checkpointed ? Math.min(downloaded, durableBytes.get()) : downloaded;
+    }
+
+    /**
+     * Records a checkpoint: every byte of the part before {@code position} is on disk.
+     */
+    void durableUpTo(long position) {
+        durableBytes.accumulateAndGet(position - part.getStartByte(), Math::max);
+        dirty.set(true);
+    }
+
+    /**
+     * Offset of the next byte to download for this part.
+     */
+    public long getPosition() {
+        return part.getStartByte() + downloadedBytes.get();
+    }
+
+    public int getAttempts() {
+        return attempts.get();
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Hex digest of the part's bytes, set once the whole part has been written.
+     */
+    public String getDigest() {
+        return digestHex;
+    }
+
+    boolean needsDigest() {
+        return digestHex == null && digest == null;
+    }
+
+    /**
+     * Starts the digest, which must already cover the bytes written before this run.
+     */
+    void startDigest(MessageDigest digest) {
+        this.digest = digest;
+    }
+
+    void hash(ByteBuffer chunk) {
+        if (digest != null) {
+            digest.update(chunk);
+        }
+    }
+
+    /**
+     * Seals the digest once the last byte of the part has been written.
+     */
+    void completeDigest() {
+        if (digest != null) {
+            digestHex = HexFormat.of().formatHex(digest.digest());
+            digest = null;
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * Starts a connection attempt of the part's own worker from the bytes actually written. A
+     * claim whose write failed, e.g. on a full disk, is given back so the attempt writes it again.
+     */
+    void startAttempt() {
+        synchronized (this) {
+            claimedUpTo = getPosition();
+        }
+        attemptStartNanos = System.nanoTime();
+        attempts.incrementAndGet();
+        abortReason = null;
+        dirty.set(true);
+    }
+
+    /**
+     * Registers the connection of the current attempt. {@code abort} must make a blocked read
+     * fail.
+     */
+    void connected(Runnable abort) {
+        windowStartNanos = 0;
+        abortConnection = abort;
+    }
+
+    /**
+     * Time since {@link #startAttempt()}, measured when the response headers have arrived.
+     */
+    long getAttemptNanos() {
+        return System.nanoTime() - attemptStartNanos;
+    }
+
+    void endAttempt(String error) {
+        abortConnection = null;
+        if (error != null) {
+            lastError = error.length() > 1000 ? error.substring(0, 1000) : error;
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * Accounts for a limiter wait that is about to start.
+     */
+    void throttled(long nanos) {
+        throttledNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Reason the current attempt was aborted, if it was.
+     */
+    String getAbortReason() {
+        return abortReason;
+    }
+
+    /**
+     * Checks the throughput of the current attempt over the last window and aborts the
+     * connection when it fell below {@code minBytesPerSecond}.
+     *
+     * @return true if the connection was aborted
+     */
+    boolean checkStalled(long nowNanos, long windowNanos, long minBytesPerSecond) {
+        Runnable abort = abortConnection;
+        if (abort == null) {
+            return false;
+        }
+        long bytes = downloadedBytes.get();
+        long throttled = throttledNanos.get();
+        if (windowStartNanos == 0) {
+            windowStartNanos = nowNanos;
+            windowStartBytes = bytes;
+            windowStartThrottledNanos = throttled;
+            return false;
+        }
+        long elapsed = nowNanos - windowStartNanos;
+        if (elapsed < windowNanos) {
+            return false;
+        }
+        // Only the time actually spent on the network counts, a throttled download is not stalled
+        long networkNanos = elapsed - (throttled - windowStartThrottledNanos);
+        long rate = networkNanos > 0 ? (bytes - windowStartBytes) * 1_000_000_000L / networkNanos : Long.MAX_VALUE;
+        windowStartNanos = nowNanos;
+        windowStartBytes = bytes;
+        windowStartThrottledNanos = throttled;
+        if (rate >= minBytesPerSecond || isFinished()) {
+            return false;
+        }
+        abortReason = "Stalled at " + rate + " B/s";
+        abort.run();
+        return true;
+    }
+
+    public synchronized long getEndByte() {
+        return endByte;
+    }
+
+    public synchronized long getRemainingBytes() {
+        return endByte - claimedUpTo + 1;
+    }
+
+    /**
+     * Whether every byte of the part has been written. Claimed bytes don't count, a claim is
+     * made before its write and stays behind if the write fails.
+     */
+    public boolean isFinished() {
+        return getPosition() > getEndByte();
+    }
+
+    /**
+     * Hands this part to a worker. Returns false if another worker already owns it.
+     */
+    boolean assign() {
+        return assigned.compareAndSet(false, true);
+    }
+
+    boolean isAssigned() {
+        return assigned.get();
+    }
+
+    /**
+     * Stops the current worker at its next chunk, the part keeps its offset for the next owner.
+     */
+    void handBack() {
+        handedBack = true;
+    }
+
+    boolean isHandedBack() {
+        return handedBack;
+    }
+
+    /**
+     * Releases a handed back part so that {@link DownloadProgress#nextPart()} offers it again.
+     */
+    void unassign() {
+        handedBack = false;
+        assigned.set(false);
+    }
+
+    /**
+     * Reserves up to {@code bytes} from the current position for writing.
+     *
+     * @return how many of the bytes still belong to this part, 0 once the end is reached
+     */
+    public synchronized int claim(int bytes) {
+        long allowed = Math.min(bytes, endByte - claimedUpTo + 1);
+        if (allowed <= 0) {
+            return 0;
+        }
+        claimedUpTo += allowed;
+        return (int) allowed;
+    }
+
+    /**
+     * Narrows this part to the near half of its unclaimed range and hands out the far half.
+     *
+     * @return the range taken from this part, or {@code null} if the far half would be smaller
+     * than {@code minSplitSize}
+     */
+    synchronized Range split(long minSplitSize) {
+        long half = (endByte - claimedUpTo + 1) / 2;
+        if (half < minSplitSize) {
+            return null;
+        }
+        Range stolen = new Range(endByte - half + 1, endByte);
+        endByte = stolen.startByte() - 1;
+        dirty.set(true);
+        return stolen;
+    }
+
+    void add(long bytes) {
+        downloadedBytes.addAndGet(bytes);
+        dirty.set(true);
+    }
+
+    boolean clearDirty() {
+        return dirty.getAndSet(false);
+    }
+
+    record Range(long startByte, long endByte) {
+    }
+}
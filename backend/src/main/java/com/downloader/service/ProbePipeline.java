@@ -0,0 +1,74 @@
+package com.downloader.service;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs the probes of stored downloads in lanes per host on the probe executor. A lane works
+ * through the downloads of its host one after another, so a run of small files from the same
+ * host is fetched request after request over the connection the lane keeps alive, instead of
+ * every probe racing for a connection of its own. No host gets more than
+ * {@code lanesPerHost} probes at a time, and a lane goes to the back of the executor queue
+ * after a burst of downloads so that hosts take turns.
+ */
+class ProbePipeline {
+
+    private static final int BURST = 16;
+
+    private final Executor executor;
+    private final Consumer<Long> probe;
+    private final int lanesPerHost;
+    private final Map<String, Lanes> hosts = new ConcurrentHashMap<>();
+
+    ProbePipeline(Executor executor, Consumer<Long> probe, int lanesPerHost) {
+        this.executor = executor;
+        this.probe = probe;
+        this.lanesPerHost = Math.max(1, lanesPerHost);
+    }
+
+    void submit(String host, Long id) {
+        Lanes lanes = hosts.computeIfAbsent(String.valueOf(host), h -> new Lanes());
+        lanes.queue.add(id);
+        lanes.start();
+    }
+
+    /**
+     * Downloads waiting for a probe from one host and the lanes working on them.
+     */
+    private class Lanes {
+        private final Queue<Long> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger running = new AtomicInteger();
+
+        void start() {
+            int lanes;
+            do {
+                lanes = running.get();
+                if (lanes >= lanesPerHost) {
+                    return;
+                }
+            } while (!running.compareAndSet(lanes, lanes + 1));
+            executor.execute(this::run);
+        }
+
+        private void run() {
+            for (int i = 0; i < BURST; i++) {
+                Long id = queue.poll();
+                if (id == null) {
+                    running.decrementAndGet();
+                    // A download queued after the poll may have seen this lane still running
+                    if (!queue.isEmpty()) {
+                        start();
+                    }
+                    return;
+                }
+                probe.accept(id);
+            }
+            executor.execute(this::run);
+        }
+    }
+}
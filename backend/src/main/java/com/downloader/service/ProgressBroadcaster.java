@@ -0,0 +1,249 @@
+package com.downloader.service;
+
+import com.downloader.dto.ProgressDelta;
+import com.downloader.model.Download;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes progress of running downloads to dashboards over Server-Sent Events. Deltas are built
+ * from the in-memory {@link ProgressJournal} counters, never from the database, and are
+ * coalesced per client so each client gets at most one message per its interval no matter how
+ * many downloads are running.
+ * <p>
+ * In a cluster the journal only knows the parts this node runs, and an {@code api} node runs
+ * none. There the deltas are read from the database every {@code download.stream.cluster-poll-ms}
+ * instead: the rows of the running downloads, whose parts the workers checkpoint every
+ * heartbeat, and of those that were running at the previous read, which is how pauses and
+ * outcomes written by other nodes show up. Progress then moves in heartbeat steps.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ProgressBroadcaster {
+
+    private final ProgressJournal progressJournal;
+    private final ClusterLeases clusterLeases;
+
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final Map<Long, ProgressDelta> statusChanges = new ConcurrentHashMap<>();
+    // Last sampled size and time per download, only touched by the ticker thread
+    private final Map<Long, long[]> samples = new HashMap<>();
+    // Downloads of the cluster watched for their next change, as last read, only touched by the ticker thread
+    private final Map<Long, ProgressDelta> clusterRows = new HashMap<>();
+    private long lastClusterReadNanos;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "progress-broadcaster");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${download.stream.tick-ms:250}")
+    private long tickMs;
+
+    @Value("${download.stream.default-interval-ms:1000}")
+    private long defaultIntervalMs;
+
+    @Value("${download.stream.cluster-poll-ms:1000}")
+    private long clusterPollMs;
+
+    @Value("${download.stream.heartbeat-ms:15000}")
+    private long heartbeatMs;
+
+    @Value("${download.stream.timeout-ms:1800000}") // Clients reconnect every 30 minutes
+    private long timeoutMs;
+
+    @PostConstruct
+    void start() {
+        ticker.scheduleWithFixedDelay(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        ticker.shutdownNow();
+        clients.forEach(client -> client.emitter.complete());
+    }
+
+    /**
+     * Opens a progress stream. {@code intervalMs} is the minimum time between two messages to
+     * this client, it cannot be lower than the ticker period.
+     */
+    public SseEmitter subscribe(Long intervalMs) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Client client = new Client(emitter, Math.max(tickMs, intervalMs != null ? intervalMs : defaultIntervalMs));
+        clients.add(client);
+        emitter.onCompletion(() -> clients.remove(client));
+        emitter.onTimeout(() -> clients.remove(client));
+        emitter.onError(error -> clients.remove(client));
+        return emitter;
+    }
+
+    /**
+     * Queues a status change (queued, started, paused, finished...) for the next tick.
+     */
+    public void publish(Download download) {
+        if (download.getId() != null) {
+            statusChanges.put(download.getId(), toDelta(download));
+        }
+    }
+
+    private void tick() {
+        try {
+            Map<Long, ProgressDelta> deltas = collectDeltas();
+            long now = System.nanoTime();
+            for (Client client : clients) {
+                client.pending.putAll(deltas);
+                if (!client.pending.isEmpty() && now - client.lastSentNanos >= client.intervalNanos) {
+                    send(client, SseEmitter.event().name("progress")
+                            .data(new ArrayList<>(client.pending.values()), MediaType.APPLICATION_JSON), now);
+                } else if (now - client.lastSentNanos >= TimeUnit.MILLISECONDS.toNanos(heartbeatMs)) {
+                    send(client, SseEmitter.event().comment("heartbeat"), now);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error broadcasting download progress: " + e.getMessage(), e);
+        }
+    }
+
+    private Map<Long, ProgressDelta> collectDeltas() {
+        Map<Long, ProgressDelta> deltas = new LinkedHashMap<>();
+        long now = System.nanoTime();
+        if (clusterLeases.isEnabled()) {
+            collectClusterDeltas(deltas, now);
+        } else {
+            Map<Long, long[]> seen = new HashMap<>();
+            for (DownloadProgress progress : progressJournal.getActive()) {
+                Long id = progress.getDownload().getId();
+                long size = progress.getDownloadedSize();
+                long[] previous = samples.get(id);
+                seen.put(id, new long[]{size, now});
+                if (previous != null && previous[0] == size) {
+                    continue;
+                }
+                deltas.put(id, toDelta(progress, rate(previous, size, now)));
+            }
+            samples.clear();
+            samples.putAll(seen);
+        }
+
+        // Status changes win over counters, they carry the final numbers of a download
+        for (Long id : new ArrayList<>(statusChanges.keySet())) {
+            ProgressDelta delta = statusChanges.remove(id);
+            if (delta != null) {
+                deltas.put(id, delta);
+            }
+        }
+        return deltas;
+    }
+
+    private void collectClusterDeltas(Map<Long, ProgressDelta> deltas, long now) {
+        if (now - lastClusterReadNanos < TimeUnit.MILLISECONDS.toNanos(clusterPollMs)) {
+            return;
+        }
+        lastClusterReadNanos = now;
+        Map<Long, ProgressDelta> watched = new HashMap<>();
+        Map<Long, long[]> seen = new HashMap<>();
+        for (ProgressDelta row : clusterLeases.readProgress(clusterRows.keySet())) {
+            Long id = row.getId();
+            ProgressDelta previous = clusterRows.get(id);
+            long[] sample = samples.get(id);
+            if (previous == null || changed(previous, row)) {
+                // Sizes move once per heartbeat, the rate spans the time between two moves
+                row.setBytesPerSecond(row.getStatus() == Download.DownloadStatus.IN_PROGRESS ? rate(sample, row.getDownloadedSize(), now) : 0);
+                deltas.put(id, row);
+                sample = new long[]{row.getDownloadedSize(), now};
+            }
+            // Watched until it stopped running and a requested extraction has an outcome
+            boolean extracting = row.getStatus() == Download.DownloadStatus.COMPLETED && Boolean.TRUE.equals(row.getExtract())
+                    && row.getExtractedPath() == null && row.getExtractError() == null;
+            if (row.getStatus() == Download.DownloadStatus.IN_PROGRESS || extracting) {
+                watched.put(id, row);
+                seen.put(id, sample);
+            }
+        }
+        clusterRows.clear();
+        clusterRows.putAll(watched);
+        samples.clear();
+        samples.putAll(seen);
+    }
+
+    private static boolean changed(ProgressDelta previous, ProgressDelta row) {
+        return previous.getStatus() != row.getStatus() || previous.getDownloadedSize() != row.getDownloadedSize()
+                || previous.getTotalSize() != row.getTotalSize() || !previous.getParts().equals(row.getParts())
+                || !Objects.equals(previous.getExtractedPath(), row.getExtractedPath())
+                || !Objects.equals(previous.getExtractError(), row.getExtractError());
+    }
+
+    private static long rate(long[] previous, long size, long now) {
+        return previous != null ? (size - previous[0]) * 1_000_000_000L / Math.max(1, now - previous[1]) : 0;
+    }
+
+    private void send(Client client, SseEmitter.SseEventBuilder event, long now) {
+        try {
+            client.emitter.send(event);
+            client.pending.clear();
+            client.lastSentNanos = now;
+        } catch (IOException | IllegalStateException e) {
+            // Client went away, the emitter callbacks may not fire for a dead connection
+            clients.remove(client);
+        }
+    }
+
+    private ProgressDelta toDelta(DownloadProgress progress, long rate) {
+        Download download = progress.getDownload();
+        List<ProgressDelta.PartDelta> parts = new ArrayList<>();
+        for (PartProgress part : progress.parts()) {
+            parts.add(new ProgressDelta.PartDelta(part.getPart().getId(), part.getPart().getStartByte(),
+                    part.getEndByte(), part.getDownloadedBytes()));
+        }
+        return new ProgressDelta(download.getId(), download.getDownloadStatus(), download.getTotalSize(),
+                progress.getDownloadedSize(), progress.getPercent(), rate, parts);
+    }
+
+    private ProgressDelta toDelta(Download download) {
+        List<ProgressDelta.PartDelta> parts = new ArrayList<>();
+        download.getParts().forEach(part -> parts.add(new ProgressDelta.PartDelta(part.getId(),
+                part.getStartByte(), part.getEndByte(), part.getDownloadedBytes())));
+        ProgressDelta delta = new ProgressDelta(download.getId(), download.getDownloadStatus(), download.getTotalSize(),
+                download.getDownloadedSize(), download.getProgress(), 0, parts);
+        delta.setFileName(download.getFileName());
+        delta.setHost(download.getHost());
+        delta.setErrorMessage(download.getErrorMessage());
+        delta.setExtract(download.isExtract());
+        delta.setExtractedPath(download.getExtractedPath());
+        delta.setExtractError(download.getExtractError());
+        return delta;
+    }
+
+    private static class Client {
+        private final SseEmitter emitter;
+        private final long intervalNanos;
+        // Only touched by the ticker thread
+        private final Map<Long, ProgressDelta> pending = new LinkedHashMap<>();
+        private long lastSentNanos;
+
+        Client(SseEmitter emitter, long intervalMs) {
+            this.emitter = emitter;
+            this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.downloader.service;
+
+import com.downloader.model.Download;
+import com.downloader.model.DownloadPart;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind store for download progress. Part workers record bytes against lock-free
+ * counters and a single flusher thread appends the dirty part offsets to the
+ * {@link ProgressLog}, either every {@code download.progress.flush-interval-ms} or once
+ * {@code download.progress.flush-threshold-bytes} have accumulated since the last flush.
+ * <p>
+ * While a download runs its progress lives only in memory and in the log, which costs one
+ * sequential write per flush instead of updating rows in the database. The rows are written
+ * once when the download stops; the log is replayed into them at startup if the previous
+ * process stopped before that.
+ * <p>
+ * In a cluster every node runs its own journal over the parts it claimed. Rows are only
+ * written while the node still holds their lease, and the offsets of the running parts are
+ * checkpointed to the database on every heartbeat, which is where another node picks a part
+ * up when this one dies.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ProgressJournal {
+
+    private static final String UPDATE_PART_SQL =
+            "UPDATE download_part SET downloaded_bytes = ?, end_byte = ?, attempts = ?, last_error = ?, digest = ? "
+                    + "WHERE id = ? AND COALESCE(lease_owner, '') = ?";
+    private static final String UPDATE_DOWNLOAD_SQL =
+            "UPDATE download SET downloaded_size = ?, progress = ?, split_count = ? WHERE id = ?";
+    private static final String RESTORE_PART_SQL =
+            "UPDATE download_part SET downloaded_bytes = ?, end_byte = ? WHERE id = ? AND download_id = ? "
+                    + "AND COALESCE(lease_owner, '') = ?";
+    private static final String RESTORE_DOWNLOAD_SQL =
+            "UPDATE download SET downloaded_size = (SELECT COALESCE(SUM(p.downloaded_bytes), 0) FROM download_part p "
+                    + "WHERE p.download_id = download.id) WHERE id = ?";
+    private static final String RESTORE_PROGRESS_SQL =
+            "UPDATE download SET progress = CASE WHEN total_size > 0 THEN downloaded_size * 100 / total_size ELSE 0 END WHERE id = ?";
+    private static final String ADD_SPLITS_SQL = "UPDATE download SET split_count = split_count + ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+    private final DownloadMetrics downloadMetrics;
+    private final ClusterLeases clusterLeases;
+
+    private final Map<Long, DownloadProgress> active = new ConcurrentHashMap<>();
+    private final AtomicLong unflushedBytes = new AtomicLong();
+    // Group commit: flush requests taken, and the last request a finished flush covers
+    private final AtomicLong flushRequests = new AtomicLong();
+    private long flushedRequests;
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "progress-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ProgressLog progressLog;
+
+    @Value("${download.progress.flush-interval-ms:500}")
+    private long flushIntervalMs;
+
+    @Value("${download.progress.flush-threshold-bytes:16777216}") // 16MB default
+    private long flushThresholdBytes;
+
+    @Value("${download.progress.log.path:./data/progress.log}")
+    private String logPath;
+
+    @Value("${download.progress.log.fsync:true}")
+    private boolean fsync;
+
+    @Value("${download.progress.log.compact-bytes:8388608}") // 8MB default
+    private long compactBytes;
+
+    @PostConstruct
+    void start() throws IOException {
+        Path path = Paths.get(logPath);
+        if (!clusterLeases.isEnabled()) {
+            clusterLeases.clear();
+        }
+        restore(ProgressLog.replay(path));
+        progressLog = ProgressLog.create(path, fsync);
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() throws IOException {
+        flusher.shutdown();
+        flush();
+        synchronized (this) {
+            progressLog.close();
+        }
+    }
+
+    public DownloadProgress register(Download download) {
+        return active.computeIfAbsent(download.getId(), id -> new DownloadProgress(download));
+    }
+
+    /**
+     * Registers a run over the parts of a download that a cluster node claimed.
+     */
+    public DownloadProgress register(Download download, Collection<DownloadPart> claimedParts) {
+        return active.computeIfAbsent(download.getId(), id -> new DownloadProgress(download, claimedParts));
+    }
+
+    public DownloadProgress get(Long downloadId) {
+        return active.get(downloadId);
+    }
+
+    public Collection<DownloadProgress> getActive() {
+        return active.values();
+    }
+
+    /**
+     * Records bytes written by a part worker. Never blocks on the database; when the byte
+     * threshold is crossed an early flush is handed to the flusher thread.
+     */
+    public void record(DownloadProgress progress, PartProgress part, long bytes) {
+        progress.add(part, bytes);
+        if (unflushedBytes.addAndGet(bytes) >= flushThresholdBytes) {
+            unflushedBytes.set(0);
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Flushes everything that is dirty, writes the download's offsets and counters to the
+     * database and removes it from the journal. Called once all part workers of a download
+     * have stopped.
+     */
+    public void complete(DownloadProgress progress) {
+        flush();
+        Download download = progress.getDownload();
+        synchronized (this) {
+            List<Object[]> partRows = partRows(progress);
+            long start = System.nanoTime();
+            jdbcTemplate.batchUpdate(UPDATE_PART_SQL, partRows);
+            if (clusterLeases.isEnabled()) {
+                // Other nodes write the other parts, the counters follow from all rows
+                jdbcTemplate.update(ADD_SPLITS_SQL, progress.getUnpersistedSplits(), download.getId());
+                jdbcTemplate.update(RESTORE_DOWNLOAD_SQL, download.getId());
+                jdbcTemplate.update(RESTORE_PROGRESS_SQL, download.getId());
+            } else {
+                jdbcTemplate.update(UPDATE_DOWNLOAD_SQL, download.getDownloadedSize(), download.getProgress(),
+                        download.getSplitCount(), download.getId());
+            }
+            downloadMetrics.recordProgressFlush(System.nanoTime() - start);
+            evictCachedEntities(partRows.stream().map(row -> row[5]).toList(), List.of(download.getId()));
+            // Only after the rows hold the offsets, a later reset of the rows must not be undone by a replay
+            progressLog.closed(download.getId());
+            try {
+                progressLog.commit();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            active.remove(download.getId(), progress);
+        }
+    }
+
+    /**
+     * Writes the logged offsets of the running parts to the database, for a cluster node whose
+     * log no other node can read. Runs that lost a part to another node are left out.
+     */
+    public void checkpoint() {
+        flush();
+        synchronized (this) {
+            List<Object[]> partRows = new ArrayList<>();
+            List<Object[]> downloadRows = new ArrayList<>();
+            for (DownloadProgress progress : active.values()) {
+                if (!progress.isFenced()) {
+                    partRows.addAll(partRows(progress));
+                    downloadRows.add(new Object[]{progress.getDownload().getId()});
+                }
+            }
+            if (partRows.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            jdbcTemplate.batchUpdate(UPDATE_PART_SQL, partRows);
+            jdbcTemplate.batchUpdate(RESTORE_DOWNLOAD_SQL, downloadRows);
+            jdbcTemplate.batchUpdate(RESTORE_PROGRESS_SQL, downloadRows);
+            downloadMetrics.recordProgressFlush(System.nanoTime() - start);
+            evictCachedEntities(partRows.stream().map(row -> row[5]).toList(), downloadRows.stream().map(row -> row[0]).toList());
+        }
+    }
+
+    // Rows for UPDATE_PART_SQL from the entity values of the last flush
+    private List<Object[]> partRows(DownloadProgress progress) {
+        List<Object[]> partRows = new ArrayList<>();
+        for (PartProgress part : progress.parts()) {
+            DownloadPart entity = part.getPart();
+            partRows.add(new Object[]{entity.getDownloadedBytes(), entity.getEndByte(), entity.getAttempts(),
+                    entity.getLastError(), entity.getDigest(), entity.getId(), clusterLeases.owner()});
+        }
+        return partRows;
+    }
+
+    /**
+     * Synchronously appends all dirty part offsets to the log. Part workers call this when
+     * they complete, fail or pause so that persisted resume offsets are never behind the file.
+     * A caller that had to wait for a flush which started after its request returns without
+     * writing again; its offsets went out with that flush.
+     */
+    public void flush() {
+        long request = flushRequests.incrementAndGet();
+        synchronized (this) {
+            if (flushedRequests >= request) {
+                return;
+            }
+            long covered = flushRequests.get();
+            try {
+                append();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            flushedRequests = covered;
+        }
+    }
+
+    private void append() throws IOException {
+        int parts = 0;
+        for (DownloadProgress progress : active.values()) {
+            for (PartProgress part : progress.parts()) {
+                if (part.clearDirty()) {
+                    DownloadPart entity = part.getPart();
+                    entity.setDownloadedBytes(part.getPersistableBytes(progress.isCheckpointed()));
+                    entity.setEndByte(part.getEndByte());
+                    entity.setAttempts(part.getAttempts());
+                    entity.setLastError(part.getLastError());
+                    entity.setDigest(part.getDigest());
+                    progressLog.part(progress.getDownload().getId(), entity.getId(), entity.getDownloadedBytes(), entity.getEndByte());
+                    parts++;
+                }
+            }
+            // The download's counters follow from its parts, they are only kept on the entity
+            if (progress.clearDirty()) {
+                Download download = progress.getDownload();
+                download.setDownloadedSize(progress.getDownloadedSize());
+                download.setProgress(progress.getPercent());
+                download.setSplitCount(progress.getSplitCount());
+            }
+        }
+
+        if (!progressLog.hasStaged()) {
+            return;
+        }
+        long start = System.nanoTime();
+        progressLog.commit();
+        downloadMetrics.recordProgressFlush(System.nanoTime() - start);
+        log.debug("Logged progress for {} parts", parts);
+        if (progressLog.size() > compactBytes) {
+            compact();
+        }
+    }
+
+    // Rewrites the log as the offsets of the running downloads, everything else is in the database
+    private void compact() throws IOException {
+        List<ProgressLog.PartOffset> snapshot = new ArrayList<>();
+        for (DownloadProgress progress : active.values()) {
+            for (PartProgress part : progress.parts()) {
+                DownloadPart entity = part.getPart();
+                snapshot.add(new ProgressLog.PartOffset(progress.getDownload().getId(), entity.getId(),
+                        entity.getDownloadedBytes(), entity.getEndByte()));
+            }
+        }
+        progressLog.compact(snapshot);
+        log.debug("Compacted progress log to {} parts", snapshot.size());
+    }
+
+    // Writes offsets a previous process only logged back to the rows before anything reads them,
+    // except parts another cluster node took over meanwhile
+    private void restore(Map<Long, ProgressLog.PartOffset> offsets) {
+        if (offsets.isEmpty()) {
+            return;
+        }
+        List<Object[]> partRows = new ArrayList<>();
+        Set<Long> downloadIds = new LinkedHashSet<>();
+        for (ProgressLog.PartOffset offset : offsets.values()) {
+            partRows.add(new Object[]{offset.downloadedBytes(), offset.endByte(), offset.partId(), offset.downloadId(),
+                    clusterLeases.owner()});
+            downloadIds.add(offset.downloadId());
+        }
+        List<Object[]> downloadRows = downloadIds.stream().map(id -> new Object[]{id}).toList();
+        jdbcTemplate.batchUpdate(RESTORE_PART_SQL, partRows);
+        jdbcTemplate.batchUpdate(RESTORE_DOWNLOAD_SQL, downloadRows);
+        jdbcTemplate.batchUpdate(RESTORE_PROGRESS_SQL, downloadRows);
+        evictCachedEntities(offsets.keySet(), downloadIds);
+        log.info("Restored logged progress of {} parts of {} downloads", partRows.size(), downloadIds.size());
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Error flushing download progress: " + e.getMessage(), e);
+        }
+    }
+
+    // The JDBC updates bypass Hibernate, so drop the second-level cache entries they made stale
+    private void evictCachedEntities(Collection<?> partIds, Collection<?> downloadIds) {
+        jakarta.persistence.Cache cache = entityManagerFactory.getCache();
+        for (Object id : partIds) {
+            cache.evict(DownloadPart.class, id);
+        }
+        for (Object id : downloadIds) {
+            cache.evict(Download.class, id);
+        }
+    }
+}
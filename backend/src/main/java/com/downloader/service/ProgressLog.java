@@ -0,0 +1,214 @@
+package com.downloader.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of the part offsets of running downloads. Every record has a fixed
+ * size and its own CRC, so a record torn by a crash ends the replay instead of corrupting it.
+ * Records are staged in memory and written with one sequential write and one force per
+ * commit; a commit covers all parts flushed in one interval.
+ * <p>
+ * A part record carries the offsets of one part, later records win. A closed record marks a
+ * download whose offsets were written to the database, so its earlier records no longer
+ * count. The log is rewritten as a snapshot of the running downloads once it grows past a
+ * size, which drops the records of every closed download.
+ */
+@Slf4j
+class ProgressLog implements AutoCloseable {
+
+    private static final int MAGIC = 0x444d504c; // "DMPL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // Type, download id, part id, downloaded bytes, end byte, CRC32 of the preceding fields
+    static final int RECORD_SIZE = 1 + 8 + 8 + 8 + 8 + 4;
+
+    private static final byte PART = 1;
+    private static final byte CLOSED = 2;
+
+    private final Path path;
+    private final boolean fsync;
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private ByteBuffer staged = ByteBuffer.allocate(RECORD_SIZE * 64);
+
+    private ProgressLog(Path path, boolean fsync) {
+        this.path = path;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Starts an empty log at the path, replacing what was there. Replay it first.
+     */
+    static ProgressLog create(Path path, boolean fsync) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        ProgressLog progressLog = new ProgressLog(path, fsync);
+        progressLog.rewrite(null);
+        return progressLog;
+    }
+
+    /**
+     * Reads a log left by a previous process.
+     *
+     * @return the last recorded offsets of every part of a download that was not closed, by part id
+     */
+    static Map<Long, PartOffset> replay(Path path) throws IOException {
+        Map<Long, PartOffset> offsets = new HashMap<>();
+        if (!Files.exists(path)) {
+            return offsets;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (read(channel, header) < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                log.warn("Ignoring progress log {} without a valid header", path);
+                return offsets;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            CRC32 crc = new CRC32();
+            long records = 0;
+            while (read(channel, buffer.clear()) > 0) {
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    int start = buffer.position();
+                    crc.reset();
+                    crc.update(buffer.slice(start, RECORD_SIZE - 4));
+                    byte type = buffer.get();
+                    long downloadId = buffer.getLong();
+                    long partId = buffer.getLong();
+                    long downloadedBytes = buffer.getLong();
+                    long endByte = buffer.getLong();
+                    if (buffer.getInt() != (int) crc.getValue() || (type != PART && type != CLOSED)) {
+                        log.warn("Progress log {} ends in a damaged record after {} records", path, records);
+                        return offsets;
+                    }
+                    if (type == PART) {
+                        offsets.put(partId, new PartOffset(downloadId, partId, downloadedBytes, endByte));
+                    } else {
+                        offsets.values().removeIf(offset -> offset.downloadId() == downloadId);
+                    }
+                    records++;
+                }
+                if (buffer.hasRemaining()) {
+                    // A record torn by the crash is the last thing in the log
+                    log.warn("Progress log {} ends in a partial record after {} records", path, records);
+                    return offsets;
+                }
+            }
+            log.debug("Replayed {} progress records from {}", records, path);
+        }
+        return offsets;
+    }
+
+    void part(long downloadId, long partId, long downloadedBytes, long endByte) {
+        stage(PART, downloadId, partId, downloadedBytes, endByte);
+    }
+
+    void closed(long downloadId) {
+        stage(CLOSED, downloadId, 0, 0, 0);
+    }
+
+    boolean hasStaged() {
+        return staged.position() > 0;
+    }
+
+    /**
+     * Appends the staged records with a single write and forces them to disk.
+     */
+    void commit() throws IOException {
+        if (!hasStaged()) {
+            return;
+        }
+        staged.flip();
+        try {
+            while (staged.hasRemaining()) {
+                channel.write(staged);
+            }
+        } finally {
+            staged.clear();
+        }
+        if (fsync) {
+            channel.force(false);
+        }
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Replaces the log with the given offsets, written to a new file that is moved over the
+     * old one, so a crash leaves either the old log or the snapshot.
+     */
+    void compact(Collection<PartOffset> snapshot) throws IOException {
+        staged.clear();
+        for (PartOffset offset : snapshot) {
+            part(offset.downloadId(), offset.partId(), offset.downloadedBytes(), offset.endByte());
+        }
+        rewrite(staged.flip());
+        staged.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void rewrite(ByteBuffer records) throws IOException {
+        Path next = path.resolveSibling(path.getFileName() + ".next");
+        try (FileChannel out = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            while (records != null && records.hasRemaining()) {
+                out.write(records);
+            }
+            out.force(true);
+        }
+        close();
+        Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void stage(byte type, long downloadId, long partId, long downloadedBytes, long endByte) {
+        if (staged.remaining() < RECORD_SIZE) {
+            staged = ByteBuffer.allocate(staged.capacity() * 2).put(staged.flip());
+        }
+        int start = staged.position();
+        staged.put(type).putLong(downloadId).putLong(partId).putLong(downloadedBytes).putLong(endByte);
+        crc.reset();
+        crc.update(staged.slice(start, RECORD_SIZE - 4));
+        staged.putInt((int) crc.getValue());
+    }
+
+    private static int read(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Offsets of one part as last written to the log.
+     */
+    record PartOffset(long downloadId, long partId, long downloadedBytes, long endByte) {
+    }
+}
@@ -0,0 +1,79 @@
+package com.downloader.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a failed part request is retried and how long to wait first. Network errors
+ * and 408/429/5xx gateway statuses are retried with exponential backoff and equal jitter;
+ * a {@code Retry-After} from the server replaces the computed delay.
+ */
+@Component
+public class RetryPolicy {
+
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(408, 429, 500, 502, 503, 504);
+
+    @Value("${download.retry.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${download.retry.initial-backoff-ms:500}")
+    private long initialBackoffMs;
+
+    @Value("${download.retry.max-backoff-ms:30000}")
+    private long maxBackoffMs;
+
+    @Value("${download.retry.max-retry-after-ms:300000}")
+    private long maxRetryAfterMs;
+
+    /**
+     * @param failures consecutive failures of the part so far, including this one
+     * @return milliseconds to wait before reconnecting, or -1 if the part should fail
+     */
+    public long delayMillis(int failures, IOException error) {
+        if (failures >= maxAttempts || !isRetryable(error)) {
+            return -1;
+        }
+        if (error instanceof HttpStatusException statusError && statusError.getRetryAfter() != null) {
+            return Math.min(statusError.getRetryAfter().toMillis(), maxRetryAfterMs);
+        }
+        long ceiling = Math.min(maxBackoffMs, initialBackoffMs << Math.min(failures - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    public boolean isRetryable(IOException error) {
+        if (error instanceof HttpStatusException statusError) {
+            return RETRYABLE_STATUSES.contains(statusError.getStatusCode());
+        }
+        // HttpURLConnection reports 404/410 as FileNotFoundException, no point retrying those
+        return !(error instanceof FileNotFoundException);
+    }
+
+    /**
+     * Parses a {@code Retry-After} header, either delta-seconds or an HTTP date.
+     */
+    public static Duration parseRetryAfter(String header) {
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(header.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                Duration delay = Duration.between(ZonedDateTime.now(date.getZone()), date);
+                return delay.isNegative() ? Duration.ZERO : delay;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+}
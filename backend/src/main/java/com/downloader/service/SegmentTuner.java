@@ -0,0 +1,237 @@
+package com.downloader.service;
+
+import com.downloader.model.Download;
+import com.downloader.model.HostProfile;
+import com.downloader.repository.HostProfileRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Picks the number of connections of adaptive downloads from measured throughput. Every
+ * {@code download.adaptive.interval-ms} the aggregate rate of each download is compared with
+ * the previous interval: one more segment is kept if it raised the rate by at least
+ * {@code download.adaptive.min-gain-percent}, otherwise it is dropped again and the download
+ * holds that count for {@code download.adaptive.hold-intervals} before probing again.
+ * Connection errors, typically a server refusing concurrent ranges, halve the count.
+ * <p>
+ * New segments are split off the largest remaining part like any other steal, and dropped ones
+ * hand their part back to the remaining workers, so the parts stay resumable as they are. The
+ * count a download settles on is remembered per host as the starting point for the next one.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class SegmentTuner {
+
+    private final HostProfileRepository hostProfileRepository;
+
+    private final Map<Long, Tuning> tunings = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "segment-tuner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${download.adaptive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${download.adaptive.initial-segments:2}")
+    private int initialSegments;
+
+    @Value("${download.adaptive.max-segments:16}")
+    private int maxSegments;
+
+    @Value("${download.adaptive.interval-ms:2000}")
+    private long intervalMs;
+
+    @Value("${download.adaptive.min-gain-percent:10}")
+    private int minGainPercent;
+
+    @Value("${download.adaptive.hold-intervals:5}")
+    private int holdIntervals;
+
+    @PostConstruct
+    void start() {
+        ticker.scheduleWithFixedDelay(this::tickQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        ticker.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Segments to start a new adaptive download from this host with.
+     */
+    public int initialSegments(String host) {
+        int segments = hostProfileRepository.findByHost(host)
+                .map(HostProfile::getSegments)
+                .orElse(initialSegments);
+        return Math.max(1, Math.min(segments, maxSegments));
+    }
+
+    /**
+     * Starts steering a running download. {@code addWorker} opens one more connection and
+     * returns false if the scheduler or the remaining work don't allow it.
+     */
+    public void start(DownloadProgress progress, BooleanSupplier addWorker) {
+        progress.setTargetWorkers(progress.getWorkers());
+        tunings.put(progress.getDownload().getId(), new Tuning(progress, addWorker));
+    }
+
+    /**
+     * Stops steering once all workers have exited. A download that ran long enough to measure
+     * leaves its segment count behind for its host and for its own resume.
+     */
+    public void stop(DownloadProgress progress) {
+        Download download = progress.getDownload();
+        Tuning tuning = tunings.remove(download.getId());
+        if (tuning == null || tuning.bestRate <= 0 || progress.isStale()) {
+            return;
+        }
+        int segments = tuning.bestSegments;
+        download.setThreadCount(segments);
+        try {
+            HostProfile profile = hostProfileRepository.findByHost(download.getHost()).orElseGet(HostProfile::new);
+            profile.setHost(download.getHost());
+            profile.setSegments(segments);
+            profile.setBytesPerSecond(tuning.bestRate);
+            profile.setTimeToFirstByteMs(TimeUnit.NANOSECONDS.toMillis(progress.getMeanTimeToFirstByteNanos()));
+            profile.setDownloads(profile.getDownloads() + 1);
+            profile.setUpdatedAt(LocalDateTime.now());
+            hostProfileRepository.save(profile);
+            log.info("Host {} settled on {} segments at {} B/s", download.getHost(), segments, tuning.bestRate);
+        } catch (RuntimeException e) {
+            log.warn("Could not save host profile for {}: {}", download.getHost(), e.getMessage());
+        }
+    }
+
+    private void tickQuietly() {
+        try {
+            long now = System.nanoTime();
+            tunings.values().forEach(tuning -> tune(tuning, now));
+        } catch (Exception e) {
+            log.error("Error tuning segment counts: " + e.getMessage(), e);
+        }
+    }
+
+    private void tune(Tuning tuning, long now) {
+        DownloadProgress progress = tuning.progress;
+        long bytes = progress.getDownloadedSize();
+        int errors = progress.getConnectionErrors();
+        long elapsed = now - tuning.windowStartNanos;
+        long rate = elapsed > 0 ? (bytes - tuning.windowStartBytes) * 1_000_000_000L / elapsed : 0;
+        int newErrors = errors - tuning.errors;
+        tuning.windowStartNanos = now;
+        tuning.windowStartBytes = bytes;
+        tuning.errors = errors;
+
+        int target = progress.getTargetWorkers();
+        if (progress.isStopping() || progress.getWorkers() == 0) {
+            return;
+        }
+        Long id = progress.getDownload().getId();
+        if (newErrors > 0) {
+            tuning.probing = false;
+            tuning.hold = holdIntervals;
+            if (target > 1) {
+                // Multiplicative decrease, the server pushes back on our connections
+                int reduced = Math.max(1, target / 2);
+                progress.setTargetWorkers(reduced);
+                tuning.bestSegments = reduced;
+                log.info("Download {} saw {} connection errors, segments {} -> {}", id, newErrors, target, reduced);
+            }
+            return;
+        }
+        if (progress.getWorkers() < target) {
+            // Workers are running out of parts, the rate no longer says anything about the count
+            tuning.probing = false;
+            return;
+        }
+
+        if (tuning.probing) {
+            tuning.probing = false;
+            if (rate * 100 >= tuning.baseRate * (100 + minGainPercent)) {
+                tuning.baseRate = rate;
+                tuning.bestRate = Math.max(tuning.bestRate, rate);
+                tuning.bestSegments = target;
+                probe(tuning, target, rate, bytes);
+            } else {
+                // The extra connection didn't pay off, settle one below
+                progress.setTargetWorkers(target - 1);
+                tuning.bestSegments = target - 1;
+                tuning.hold = holdIntervals;
+                log.debug("Download {} gained nothing from segment {} ({} -> {} B/s)", id, target, tuning.baseRate, rate);
+            }
+            return;
+        }
+
+        tuning.baseRate = rate;
+        tuning.bestRate = Math.max(tuning.bestRate, rate);
+        if (tuning.bestSegments == 0) {
+            tuning.bestSegments = target;
+        }
+        if (tuning.hold > 0) {
+            tuning.hold--;
+            return;
+        }
+        probe(tuning, target, rate, bytes);
+    }
+
+    private void probe(Tuning tuning, int target, long rate, long bytes) {
+        DownloadProgress progress = tuning.progress;
+        if (target >= maxSegments || rate <= 0) {
+            return;
+        }
+        // A new connection pays its time to first byte up front and then needs a full interval
+        // to be measured, too late for a download that is nearly done
+        long remainingNanos = (progress.getDownload().getTotalSize() - bytes) * 1_000_000_000L / rate;
+        long neededNanos = Math.max(2 * TimeUnit.MILLISECONDS.toNanos(intervalMs), 4 * progress.getMeanTimeToFirstByteNanos());
+        if (remainingNanos < neededNanos) {
+            return;
+        }
+        progress.setTargetWorkers(target + 1);
+        if (tuning.addWorker.getAsBoolean()) {
+            tuning.probing = true;
+            log.debug("Download {} probing {} segments at {} B/s", progress.getDownload().getId(), target + 1, rate);
+        } else {
+            progress.setTargetWorkers(target);
+        }
+    }
+
+    private static final class Tuning {
+        private final DownloadProgress progress;
+        private final BooleanSupplier addWorker;
+        private long windowStartNanos = System.nanoTime();
+        private long windowStartBytes;
+        private int errors;
+        private long baseRate;
+        private long bestRate;
+        private int bestSegments;
+        private boolean probing;
+        private int hold;
+
+        private Tuning(DownloadProgress progress, BooleanSupplier addWorker) {
+            this.progress = progress;
+            this.addWorker = addWorker;
+            this.windowStartBytes = progress.getDownloadedSize();
+            this.errors = progress.getConnectionErrors();
+        }
+    }
+}
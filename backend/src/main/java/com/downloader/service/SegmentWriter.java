@@ -0,0 +1,37 @@
+package com.downloader.service;
+
+import com.downloader.model.Download;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Write engine that copies a segment of a download from the network into the output file.
+ * The engine is chosen per download by name, defaulting to {@code download.write.engine}.
+ */
+public interface SegmentWriter {
+
+    String getName();
+
+    /**
+     * Copies {@code in} into the file of {@code download} starting at {@code position}.
+     *
+     * @return number of bytes written
+     */
+    long write(Download download, long position, InputStream in, ChunkListener listener) throws IOException;
+
+    /**
+     * Whether the writer forces its bytes to disk at checkpoints and reports them through
+     * {@link ChunkListener#durable(long)}. Progress of such downloads is only persisted up to
+     * the last checkpoint.
+     */
+    default boolean forcesCheckpoints() {
+        return false;
+    }
+
+    /**
+     * Releases any per-download resources once all part workers have stopped.
+     */
+    default void release(Download download) {
+    }
+}
@@ -0,0 +1,12 @@
+package com.downloader.service;
+
+import java.nio.file.Path;
+
+/**
+ * What {@code GET /api/downloads/{id}/file} serves for a download. For a download that is not
+ * complete yet {@code length} is the contiguous prefix written so far, and there are no
+ * validators because the representation is still growing.
+ */
+public record ServedFile(Long downloadId, Path path, String fileName, String contentType, long length,
+                         String etag, long lastModified, boolean complete) {
+}
@@ -0,0 +1,65 @@
+package com.downloader.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the throughput of every open part connection and aborts the ones that fall below
+ * {@code download.stall.min-bytes-per-second} for a whole {@code download.stall.window-ms}.
+ * The aborted part then reconnects through the {@link RetryPolicy} from its current offset,
+ * so a large file is never failed just for taking long.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class StallDetector {
+
+    private final ProgressJournal progressJournal;
+    private final ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "stall-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${download.stall.window-ms:30000}")
+    private long windowMs;
+
+    @Value("${download.stall.min-bytes-per-second:1024}")
+    private long minBytesPerSecond;
+
+    @PostConstruct
+    void start() {
+        long interval = Math.max(1000, windowMs / 5);
+        checker.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        checker.shutdownNow();
+    }
+
+    private void check() {
+        try {
+            long now = System.nanoTime();
+            long windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+            for (DownloadProgress progress : progressJournal.getActive()) {
+                for (PartProgress part : progress.parts()) {
+                    if (part.checkStalled(now, windowNanos, minBytesPerSecond)) {
+                        log.warn("Download {} part {}-{}: {}, reconnecting", progress.getDownload().getId(),
+                                part.getPart().getStartByte(), part.getEndByte(), part.getAbortReason());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error checking for stalled downloads: " + e.getMessage(), e);
+        }
+    }
+}
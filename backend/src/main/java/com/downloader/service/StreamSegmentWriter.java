@@ -0,0 +1,59 @@
+package com.downloader.service;
+
+import com.downloader.model.Download;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Original write path: one {@link RandomAccessFile} per part fed from a heap buffer.
+ */
+@Component
+@RequiredArgsConstructor
+public class StreamSegmentWriter implements SegmentWriter {
+
+    public static final String NAME = "stream";
+
+    private final DownloadMetrics downloadMetrics;
+
+    @Value("${download.chunk.size:1048576}")
+    private int chunkSize;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public long write(Download download, long position, InputStream in, ChunkListener listener) throws IOException {
+        long written = 0;
+        Timer writeTimer = downloadMetrics.diskWrite(NAME);
+        try (RandomAccessFile file = new RandomAccessFile(download.getFilePath(), "rw")) {
+            file.seek(position);
+            byte[] buffer = new byte[chunkSize];
+            int bytesRead;
+
+            while ((bytesRead = in.read(buffer)) != -1) {
+                int allowed = listener.claim(bytesRead);
+                if (allowed > 0) {
+                    long start = System.nanoTime();
+                    file.write(buffer, 0, allowed);
+                    writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    written += allowed;
+                    listener.onChunk(ByteBuffer.wrap(buffer, 0, allowed));
+                }
+                if (allowed < bytesRead) {
+                    break;
+                }
+            }
+        }
+        return written;
+    }
+}
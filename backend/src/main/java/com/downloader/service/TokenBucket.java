@@ -0,0 +1,99 @@
+package com.downloader.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free token bucket in its virtual scheduling form: instead of a token count it keeps
+ * the time at which the bucket will be empty again, and callers reserve bytes with a single
+ * CAS and then sleep on their own for as long as the reservation says. A bucket of
+ * {@code burstNanos} worth of bytes can be drawn at once after an idle period.
+ */
+class TokenBucket {
+
+    private final AtomicLong emptyAtNanos = new AtomicLong(System.nanoTime());
+    // Counts rate changes, so waiters notice one
+    private final AtomicLong generation = new AtomicLong();
+    private final long burstNanos;
+    private volatile long bytesPerSecond;
+
+    private final LongAdder bytesAcquired = new LongAdder();
+    private final LongAdder waitedNanos = new LongAdder();
+    private final LongAdder throttledAcquisitions = new LongAdder();
+
+    TokenBucket(long bytesPerSecond, long burstNanos) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.burstNanos = burstNanos;
+    }
+
+    long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Changes the rate. 0 or less means unlimited. Bytes reserved ahead of time are paid off at
+     * the new rate, so the bucket is not empty any later than the new rate says; waiters see
+     * the change through {@link #getGeneration()}.
+     */
+    synchronized void setBytesPerSecond(long bytesPerSecond) {
+        long previous = this.bytesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        long now = System.nanoTime();
+        while (true) {
+            long emptyAt = emptyAtNanos.get();
+            long debt = emptyAt - now;
+            long next = debt > 0 && previous > 0 && bytesPerSecond > 0
+                    ? now + (long) ((double) debt * previous / bytesPerSecond)
+                    : Math.min(emptyAt, now);
+            if (emptyAtNanos.compareAndSet(emptyAt, next)) {
+                break;
+            }
+        }
+        generation.incrementAndGet();
+    }
+
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Takes {@code bytes} out of the bucket.
+     *
+     * @return how long the caller has to wait before using the bytes, 0 if they were available
+     */
+    long reserve(int bytes, long nowNanos) {
+        bytesAcquired.add(bytes);
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return 0;
+        }
+        long cost = bytes * 1_000_000_000L / rate;
+        while (true) {
+            long emptyAt = emptyAtNanos.get();
+            long next = Math.max(emptyAt, nowNanos) + cost;
+            if (emptyAtNanos.compareAndSet(emptyAt, next)) {
+                return Math.max(0, next - nowNanos - burstNanos);
+            }
+        }
+    }
+
+    /**
+     * Charges a wait to this bucket, the one whose rate made the caller wait.
+     */
+    void recordWait(long nanos) {
+        waitedNanos.add(nanos);
+        throttledAcquisitions.increment();
+    }
+
+    long getBytesAcquired() {
+        return bytesAcquired.sum();
+    }
+
+    long getWaitedNanos() {
+        return waitedNanos.sum();
+    }
+
+    long getThrottledAcquisitions() {
+        return throttledAcquisitions.sum();
+    }
+}
@@ -0,0 +1,32 @@
+package com.downloader.transport;
+
+import java.io.IOException;
+
+/**
+ * HTTP client used by the download engine. Selected with {@code download.http.transport}.
+ */
+public interface HttpTransport {
+
+    String getName();
+
+    /**
+     * Reads size, type and validators of a remote file without downloading its body.
+     */
+    default ProbeResult probe(String url) throws IOException {
+        return probe(url, null, null);
+    }
+
+    /**
+     * Conditional probe. Returns a 304 result if the remote file still matches the given
+     * validators, either of which may be {@code null}.
+     */
+    ProbeResult probe(String url, String ifNoneMatch, String ifModifiedSince) throws IOException;
+
+    /**
+     * Requests {@code bytes=startByte-endByte} of a remote file. Never throws for HTTP error
+     * statuses, callers inspect {@link RangeResponse#getStatusCode()}.
+     *
+     * @param ifRange validator for the {@code If-Range} header, or {@code null}
+     */
+    RangeResponse get(String url, long startByte, long endByte, String ifRange) throws IOException;
+}
@@ -0,0 +1,163 @@
+package com.downloader.transport;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Transport on a single shared {@link HttpClient}. The client pools connections per origin
+ * and negotiates HTTP/2 where the server supports it, so the range requests of all parts of a
+ * download are multiplexed over one connection instead of paying a TCP and TLS handshake each.
+ * The size probe is a HEAD request, falling back to {@code Range: bytes=0-0}.
+ */
+@Component
+public class JdkHttpClientTransport implements HttpTransport {
+
+    public static final String NAME = "httpclient";
+
+    private HttpClient client;
+
+    @Value("${download.http.connect-timeout-ms:15000}")
+    private int connectTimeoutMs;
+
+    @Value("${download.http.read-timeout-ms:60000}")
+    private int readTimeoutMs;
+
+    @PostConstruct
+    void start() {
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ProbeResult probe(String url, String ifNoneMatch, String ifModifiedSince) throws IOException {
+        HttpResponse<Void> head = send(conditional(request(url), ifNoneMatch, ifModifiedSince)
+                        .method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding());
+        ProbeResult result = toProbeResult(head.headers(), head.statusCode(),
+                head.headers().firstValueAsLong("Content-Length").orElse(-1));
+        if (result.getStatusCode() == 304 || (result.getStatusCode() == 200 && result.getContentLength() > 0)) {
+            return result;
+        }
+
+        // Some servers reject HEAD or omit the length there, ask for the first byte instead
+        HttpResponse<InputStream> response = send(conditional(request(url), ifNoneMatch, ifModifiedSince)
+                        .header("Range", "bytes=0-0").GET().build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        // Closing right away also stops a server that ignored the range from sending the whole body
+        response.body().close();
+        boolean partial = response.statusCode() == 206;
+        long length = partial
+                ? ProbeResult.totalFromContentRange(response.headers().firstValue("Content-Range").orElse(null))
+                : response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        result = toProbeResult(response.headers(), partial ? 200 : response.statusCode(), length);
+        result.setAcceptRanges(result.isAcceptRanges() || partial);
+        if (partial) {
+            // Content-MD5 of a 206 covers only the returned range
+            result.setContentMd5(null);
+        }
+        return result;
+    }
+
+    @Override
+    public RangeResponse get(String url, long startByte, long endByte, String ifRange) throws IOException {
+        HttpRequest.Builder builder = request(url).header("Range", "bytes=" + startByte + "-" + endByte).GET();
+        if (ifRange != null) {
+            builder.header("If-Range", ifRange);
+        }
+        HttpResponse<InputStream> response = send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        InputStream body = response.body();
+        return new RangeResponse() {
+            @Override
+            public int getStatusCode() {
+                return response.statusCode();
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return response.headers().firstValue(name).orElse(null);
+            }
+
+            @Override
+            public InputStream getBody() {
+                return body;
+            }
+
+            @Override
+            public void abort() {
+                try {
+                    body.close();
+                } catch (IOException ignored) {
+                    // Aborting anyway
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                body.close();
+            }
+        };
+    }
+
+    private HttpRequest.Builder request(String url) {
+        return HttpRequest.newBuilder(URI.create(url))
+                // Only bounds the wait for response headers, body stalls are the StallDetector's job
+                .timeout(Duration.ofMillis(readTimeoutMs))
+                .header("User-Agent", "Mozilla/5.0")
+                .header("Accept", "*/*");
+    }
+
+    private static HttpRequest.Builder conditional(HttpRequest.Builder builder, String ifNoneMatch, String ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            builder.header("If-None-Match", ifNoneMatch);
+        }
+        if (ifModifiedSince != null) {
+            builder.header("If-Modified-Since", ifModifiedSince);
+        }
+        return builder;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return client.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + request.uri());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid request for " + request.uri() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private ProbeResult toProbeResult(HttpHeaders headers, int statusCode, long contentLength) {
+        ProbeResult result = new ProbeResult();
+        result.setStatusCode(statusCode);
+        result.setContentLength(contentLength);
+        result.setContentType(headers.firstValue("Content-Type").orElse(null));
+        result.setContentDisposition(headers.firstValue("Content-Disposition").orElse(null));
+        result.setEtag(headers.firstValue("ETag").orElse(null));
+        result.setLastModified(headers.firstValue("Last-Modified").orElse(null));
+        result.setAcceptRanges("bytes".equalsIgnoreCase(headers.firstValue("Accept-Ranges").orElse(null)));
+        result.setContentMd5(headers.firstValue("Content-MD5").orElse(null));
+        result.setDigest(headers.firstValue("Digest").orElse(null));
+        result.setReprDigest(headers.firstValue("Repr-Digest").orElse(null));
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package com.downloader.transport;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+public class ProbeResult {
+    private int statusCode;
+    private long contentLength = -1;
+    private String contentType;
+    private String contentDisposition;
+    private String etag;
+    private String lastModified;
+    private boolean acceptRanges;
+    // Whole file digests announced by the server, raw header values
+    private String contentMd5;
+    private String digest;
+    private String reprDigest;
+
+    /**
+     * Probe result from the headers of a response to a range request starting at byte 0. A 206
+     * counts as 200 with the total size from its {@code Content-Range}.
+     */
+    public static ProbeResult fromRangeResponse(RangeResponse response) {
+        boolean partial = response.getStatusCode() == 206;
+        ProbeResult result = new ProbeResult();
+        result.setStatusCode(partial ? 200 : response.getStatusCode());
+        result.setContentLength(partial
+                ? totalFromContentRange(response.getHeader("Content-Range"))
+                : parseLength(response.getHeader("Content-Length")));
+        result.setContentType(response.getHeader("Content-Type"));
+        result.setContentDisposition(response.getHeader("Content-Disposition"));
+        result.setEtag(response.getHeader("ETag"));
+        result.setLastModified(response.getHeader("Last-Modified"));
+        result.setAcceptRanges(partial || "bytes".equalsIgnoreCase(response.getHeader("Accept-Ranges")));
+        // Content-MD5 of a 206 covers only the returned range
+        result.setContentMd5(partial ? null : response.getHeader("Content-MD5"));
+        result.setDigest(response.getHeader("Digest"));
+        result.setReprDigest(response.getHeader("Repr-Digest"));
+        return result;
+    }
+
+    private static long parseLength(String contentLength) {
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Total size from a {@code Content-Range: bytes 0-0/12345} header, or -1.
+     */
+    static long totalFromContentRange(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0 || contentRange.endsWith("*")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
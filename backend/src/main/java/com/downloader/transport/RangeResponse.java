@@ -0,0 +1,22 @@
+package com.downloader.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Response to a range request. Closing it releases the connection.
+ */
+public interface RangeResponse extends Closeable {
+
+    int getStatusCode();
+
+    String getHeader(String name);
+
+    InputStream getBody() throws IOException;
+
+    /**
+     * Aborts the response from another thread, making a blocked read on the body fail.
+     */
+    void abort();
+}
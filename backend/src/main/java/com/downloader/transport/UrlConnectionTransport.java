@@ -0,0 +1,145 @@
+package com.downloader.transport;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Transport on {@link HttpURLConnection}, one connection per request with the JDK's
+ * HTTP/1.1 keep-alive cache. Kept as a fallback for servers that misbehave with
+ * {@link JdkHttpClientTransport}.
+ */
+@Component
+public class UrlConnectionTransport implements HttpTransport {
+
+    public static final String NAME = "urlconnection";
+
+    @Value("${download.http.connect-timeout-ms:15000}")
+    private int connectTimeoutMs;
+
+    @Value("${download.http.read-timeout-ms:60000}")
+    private int readTimeoutMs;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ProbeResult probe(String url, String ifNoneMatch, String ifModifiedSince) throws IOException {
+        HttpURLConnection conn = open(url, "HEAD");
+        conditional(conn, ifNoneMatch, ifModifiedSince);
+        try {
+            ProbeResult result = toProbeResult(conn, conn.getResponseCode(), conn.getContentLengthLong());
+            if (result.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED
+                    || (result.getStatusCode() == HttpURLConnection.HTTP_OK && result.getContentLength() > 0)) {
+                return result;
+            }
+        } finally {
+            conn.disconnect();
+        }
+
+        // Some servers reject HEAD or omit the length there, ask for the first byte instead
+        conn = open(url, "GET");
+        conditional(conn, ifNoneMatch, ifModifiedSince);
+        conn.setRequestProperty("Range", "bytes=0-0");
+        try {
+            int responseCode = conn.getResponseCode();
+            long length = responseCode == HttpURLConnection.HTTP_PARTIAL
+                    ? ProbeResult.totalFromContentRange(conn.getHeaderField("Content-Range"))
+                    : conn.getContentLengthLong();
+            ProbeResult result = toProbeResult(conn, responseCode == HttpURLConnection.HTTP_PARTIAL
+                    ? HttpURLConnection.HTTP_OK : responseCode, length);
+            result.setAcceptRanges(result.isAcceptRanges() || responseCode == HttpURLConnection.HTTP_PARTIAL);
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                // Content-MD5 of a 206 covers only the returned range
+                result.setContentMd5(null);
+            }
+            return result;
+        } finally {
+            // Don't let a server that ignored the range stream the whole body into the keep-alive cache
+            conn.disconnect();
+        }
+    }
+
+    @Override
+    public RangeResponse get(String url, long startByte, long endByte, String ifRange) throws IOException {
+        HttpURLConnection conn = open(url, "GET");
+        conn.setRequestProperty("Range", "bytes=" + startByte + "-" + endByte);
+        if (ifRange != null) {
+            conn.setRequestProperty("If-Range", ifRange);
+        }
+        int responseCode = conn.getResponseCode();
+        return new RangeResponse() {
+            private InputStream body;
+
+            @Override
+            public int getStatusCode() {
+                return responseCode;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return conn.getHeaderField(name);
+            }
+
+            @Override
+            public InputStream getBody() throws IOException {
+                body = conn.getInputStream();
+                return body;
+            }
+
+            @Override
+            public void abort() {
+                conn.disconnect();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (body != null) {
+                    body.close();
+                } else {
+                    conn.disconnect();
+                }
+            }
+        };
+    }
+
+    private HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(connectTimeoutMs);
+        conn.setReadTimeout(readTimeoutMs);
+        conn.setRequestMethod(method);
+        conn.setRequestProperty("User-Agent", "Mozilla/5.0");
+        conn.setRequestProperty("Accept", "*/*");
+        return conn;
+    }
+
+    private static void conditional(HttpURLConnection conn, String ifNoneMatch, String ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            conn.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+        if (ifModifiedSince != null) {
+            conn.setRequestProperty("If-Modified-Since", ifModifiedSince);
+        }
+    }
+
+    private ProbeResult toProbeResult(HttpURLConnection conn, int statusCode, long contentLength) {
+        ProbeResult result = new ProbeResult();
+        result.setStatusCode(statusCode);
+        result.setContentLength(contentLength);
+        result.setContentType(conn.getContentType());
+        result.setContentDisposition(conn.getHeaderField("Content-Disposition"));
+        result.setEtag(conn.getHeaderField("ETag"));
+        result.setLastModified(conn.getHeaderField("Last-Modified"));
+        result.setAcceptRanges("bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges")));
+        result.setContentMd5(conn.getHeaderField("Content-MD5"));
+        result.setDigest(conn.getHeaderField("Digest"));
+        result.setReprDigest(conn.getHeaderField("Repr-Digest"));
+        return result;
+    }
+}
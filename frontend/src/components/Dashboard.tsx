@@ -1,4 +1,4 @@
-import React, { useState, useMemo, useRef, useEffect } from 'react';
+import React, { useState, useMemo, useRef, useEffect, useCallback } from 'react';
 import {
     Box,
     Container,
@@ -18,7 +18,7 @@ import DownloadForm from './DownloadForm';
 import DownloadList from './DownloadList';
 import { useQuery, useMutation, useQueryClient } from '@tanstack/react-query';
 import { api } from '../services/api';
-import { Download, DownloadStatus } from '../types/download';
+import { DownloadPart, DownloadStatus, DownloadSummary, PartDelta, ProgressDelta } from '../types/download';
 
 const formatSpeed = (bytesPerSecond: number): string => {
     if (bytesPerSecond === 0) return '0 B/s';
@@ -28,6 +28,49 @@ const formatSpeed = (bytesPerSecond: number): string => {
     return parseFloat((bytesPerSecond / Math.pow(k, i)).toFixed(2)) + ' ' + sizes[i];
 };
 
+const ACTIVE_STATUSES = [DownloadStatus.PENDING, DownloadStatus.IN_PROGRESS, DownloadStatus.PAUSED];
+// Finished downloads are shown newest first up to this many
+const FINISHED_LIMIT = 100;
+
+// Every unfinished download with its parts, then the newest finished ones, as keyset pages of summaries
+const loadDownloads = async (): Promise<DownloadSummary[]> => {
+    const downloads: DownloadSummary[] = [];
+    let cursor: string | undefined;
+    do {
+        const page = await api.listDownloads({ status: ACTIVE_STATUSES, includeParts: true, limit: 500, cursor });
+        downloads.push(...page.items);
+        cursor = page.nextCursor ?? undefined;
+    } while (cursor);
+    const finished = await api.listDownloads({ status: [DownloadStatus.COMPLETED, DownloadStatus.FAILED], limit: FINISHED_LIMIT });
+    return [...downloads, ...finished.items];
+};
+
+// A delta may hold only some parts, such as those one cluster node runs, so parts are merged by id
+const mergeParts = (parts: DownloadPart[] = [], deltas: PartDelta[]): DownloadPart[] => {
+    const merged = new Map<number, DownloadPart>(parts.map((part) => [part.id, part]));
+    deltas.forEach((delta) => merged.set(delta.id, { ...merged.get(delta.id), ...delta } as DownloadPart));
+    return Array.from(merged.values()).sort((a, b) => a.startByte - b.startByte);
+};
+
+// Row of a download the list didn't have, from a status change which names it
+const fromDelta = (delta: ProgressDelta): DownloadSummary => ({
+    id: delta.id,
+    fileName: delta.fileName ?? null,
+    host: delta.host ?? null,
+    downloadStatus: delta.status,
+    totalSize: delta.totalSize,
+    downloadedSize: delta.downloadedSize,
+    progress: delta.progress,
+    threadCount: 0,
+    priority: 0,
+    startTime: null,
+    completionTime: null,
+    errorMessage: delta.errorMessage,
+    extractedPath: delta.extractedPath,
+    extractError: delta.extractError,
+    parts: mergeParts([], delta.parts),
+});
+
 const Dashboard = () => {
     const queryClient = useQueryClient();
     const [currentTab, setCurrentTab] = useState(0);
@@ -35,13 +78,70 @@ const Dashboard = () => {
     const lastUpdateTime = useRef<number>(Date.now());
     const [downloadSpeed, setDownloadSpeed] = useState<string>('0 B/s');
 
+    const fetching = useRef(new Set<number>());
+
     const { data: downloads = [] } = useQuery({
         queryKey: ['downloads'],
-        queryFn: api.getAllDownloads,
-        refetchInterval: 500,
-        initialData: [] as Download[],
+        queryFn: loadDownloads,
+        initialData: [] as DownloadSummary[],
     });
 
+    const upsert = useCallback((row: DownloadSummary) => {
+        queryClient.setQueryData<DownloadSummary[]>(['downloads'], (current = []) =>
+            current.some((download) => download.id === row.id)
+                ? current.map((download) => (download.id === row.id ? row : download))
+                : [row, ...current]);
+    }, [queryClient]);
+
+    // Fetches the row of one download, never the whole list
+    const refresh = useCallback((id: number) => {
+        if (fetching.current.has(id)) {
+            return;
+        }
+        fetching.current.add(id);
+        api.getDownload(id).then(upsert).catch(() => undefined).finally(() => fetching.current.delete(id));
+    }, [upsert]);
+
+    // Progress arrives over the server-sent stream. A download we don't know about is added
+    // from its status change, or fetched on its own if the delta doesn't name it
+    useEffect(() => {
+        return api.subscribeToProgress((deltas: ProgressDelta[]) => {
+            // While the list loads every download looks unknown, and the load reads the same state
+            if (queryClient.isFetching({ queryKey: ['downloads'] }) > 0) {
+                return;
+            }
+            const current = queryClient.getQueryData<DownloadSummary[]>(['downloads']) ?? [];
+            const added: DownloadSummary[] = [];
+            deltas.filter((delta) => !current.some((download) => download.id === delta.id)).forEach((delta) => {
+                if (delta.fileName || delta.host) {
+                    added.push(fromDelta(delta));
+                } else {
+                    refresh(delta.id);
+                }
+            });
+            queryClient.setQueryData<DownloadSummary[]>(['downloads'], [...added, ...current.map((download) => {
+                const delta = deltas.find((d) => d.id === download.id);
+                if (!delta) {
+                    return download;
+                }
+                // Status changes carry the outcome of the new status, counters carry none
+                const outcome = delta.status === download.downloadStatus ? download : {} as Partial<DownloadSummary>;
+                return {
+                    ...download,
+                    downloadStatus: delta.status,
+                    totalSize: delta.totalSize,
+                    downloadedSize: delta.downloadedSize,
+                    progress: delta.progress,
+                    fileName: delta.fileName ?? download.fileName,
+                    errorMessage: delta.errorMessage ?? outcome.errorMessage,
+                    extractedPath: delta.extractedPath ?? outcome.extractedPath,
+                    extractError: delta.extractError ?? outcome.extractError,
+                    parts: mergeParts(download.parts, delta.parts),
+                };
+            })]);
+        });
+    }, [queryClient, refresh]);
+
     useEffect(() => {
         // Calculate total downloaded bytes
         const totalBytes = downloads.reduce((sum, download) => {
@@ -67,11 +167,9 @@ const Dashboard = () => {
     }, [downloads]);
 
     const startDownloadMutation = useMutation({
-        mutationFn: ({ url, fileName, threadCount }: { url: string; fileName?: string, threadCount?: number }) => 
-            api.startDownload(url, fileName, threadCount),
-        onSuccess: () => {
-            queryClient.invalidateQueries({ queryKey: ['downloads'] });
-        },
+        mutationFn: ({ url, fileName, threadCount, mirrors, extract }: { url: string; fileName?: string, threadCount?: number, mirrors?: string[], extract?: boolean }) => 
+            api.startDownload(url, fileName, threadCount, mirrors, extract),
+        onSuccess: upsert,
     });
 
     const toggleDownloadMutation = useMutation({
@@ -82,17 +180,15 @@ const Dashboard = () => {
                 await api.resumeDownload(id);
             }
         },
-        onSuccess: () => {
-            queryClient.invalidateQueries({ queryKey: ['downloads'] });
-        },
+        onSuccess: (_, { id }) => refresh(id),
     });
 
-    const handleFormSubmit = (url: string, fileName?: string, threadCount?: number) => {
-        startDownloadMutation.mutate({ url, fileName, threadCount });
+    const handleFormSubmit = (url: string, fileName?: string, threadCount?: number, mirrors?: string[], extract?: boolean) => {
+        startDownloadMutation.mutate({ url, fileName, threadCount, mirrors, extract });
     };
 
     const activeDownloads = useMemo(
-        () => downloads.filter((d) => d.downloadStatus === DownloadStatus.IN_PROGRESS || d.downloadStatus === DownloadStatus.PAUSED),
+        () => downloads.filter((d) => d.downloadStatus === DownloadStatus.PENDING || d.downloadStatus === DownloadStatus.IN_PROGRESS || d.downloadStatus === DownloadStatus.PAUSED),
         [downloads]
     );
     const completedDownloads = useMemo(
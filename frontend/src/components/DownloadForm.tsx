@@ -6,26 +6,36 @@ import {
     Collapse,
     Typography,
     Slider,
+    FormControlLabel,
+    Switch,
 } from '@mui/material';
 import { Download as DownloadIcon, ArrowDropDown, ArrowDropUp } from '@mui/icons-material';
 
 interface DownloadFormProps {
-    onSubmit: (url: string, fileName?: string, threadCount?: number) => void;
+    onSubmit: (url: string, fileName?: string, threadCount?: number, mirrors?: string[], extract?: boolean) => void;
     isDownloading: boolean;
 }
 
 const DownloadForm: React.FC<DownloadFormProps> = ({ onSubmit, isDownloading }) => {
     const [url, setUrl] = useState('');
     const [fileName, setFileName] = useState('');
+    // Other URLs of the same file, one per line
+    const [mirrors, setMirrors] = useState('');
     const [showAdvanced, setShowAdvanced] = useState(false);
     const [threadCount, setThreadCount] = useState(4);
+    // Lets the server pick and tune the thread count per host
+    const [adaptive, setAdaptive] = useState(true);
+    // Unpacks .zip, .tar, .tar.gz and .gz files while they download
+    const [extract, setExtract] = useState(false);
 
     const handleSubmit = (e: React.FormEvent) => {
         e.preventDefault();
         if (url) {
-            onSubmit(url, fileName, threadCount);
+            const mirrorUrls = mirrors.split('\n').map((mirror) => mirror.trim()).filter(Boolean);
+            onSubmit(url, fileName, adaptive ? undefined : threadCount, mirrorUrls.length ? mirrorUrls : undefined, extract);
             setUrl('');
             setFileName('');
+            setMirrors('');
         }
     };
 
@@ -64,10 +74,31 @@ const DownloadForm: React.FC<DownloadFormProps> = ({ onSubmit, isDownloading })
                         variant="outlined"
                         sx={{ mt: 2 }}
                     />
+                    <TextField
+                        fullWidth
+                        multiline
+                        minRows={2}
+                        label="Mirror URLs, one per line (optional)"
+                        value={mirrors}
+                        onChange={(e) => setMirrors(e.target.value)}
+                        variant="outlined"
+                        sx={{ mt: 2 }}
+                    />
+                    <FormControlLabel
+                        control={<Switch checked={adaptive} onChange={(e) => setAdaptive(e.target.checked)} />}
+                        label="Adaptive threads"
+                        sx={{ mt: 2 }}
+                    />
+                    <FormControlLabel
+                        control={<Switch checked={extract} onChange={(e) => setExtract(e.target.checked)} />}
+                        label="Extract archive"
+                        sx={{ mt: 2 }}
+                    />
                     <Typography gutterBottom sx={{ mt: 2 }}>
-                        Threads: {threadCount}
+                        Threads: {adaptive ? 'auto' : threadCount}
                     </Typography>
                     <Slider
+                        disabled={adaptive}
                         value={threadCount}
                         onChange={(e, newValue) => setThreadCount(newValue as number)}
                         aria-labelledby="thread-slider"
@@ -1,10 +1,10 @@
 import React from 'react';
 import { List, Box, Typography } from '@mui/material';
-import { Download } from '../types/download';
+import { DownloadSummary } from '../types/download';
 import DownloadListItem from './DownloadListItem';
 
 interface DownloadListProps {
-    downloads: Download[];
+    downloads: DownloadSummary[];
     onToggle: (id: number, action: 'pause' | 'resume') => void;
 }
 
@@ -10,12 +10,12 @@ import {
     Stack
 } from '@mui/material';
 import { PlayArrow, Pause, SaveAlt } from '@mui/icons-material';
-import { Download, DownloadStatus } from '../types/download';
+import { DownloadStatus, DownloadSummary } from '../types/download';
 import { api } from '../services/api';
 import MultiSegmentProgressBar from './MultiSegmentProgressBar';
 
 interface DownloadListItemProps {
-    download: Download;
+    download: DownloadSummary;
     onToggle: (id: number, action: 'pause' | 'resume') => void;
 }
 
@@ -69,7 +69,7 @@ const DownloadListItem: React.FC<DownloadListItemProps> = ({ download, onToggle
                             color="primary"
                             size="small"
                             startIcon={<SaveAlt />}
-                            onClick={() => api.downloadFile(download.id, download.fileName)}
+                            onClick={() => api.downloadFile(download.id, download.fileName ?? '')}
                             sx={{ borderRadius: '20px' }}
                         >
                             Save
@@ -79,12 +79,12 @@ const DownloadListItem: React.FC<DownloadListItemProps> = ({ download, onToggle
             }
         >
             <ListItemText
-                primary={<Typography variant="subtitle1" noWrap>{download.fileName}</Typography>}
+                primary={<Typography variant="subtitle1" noWrap>{download.fileName ?? download.host ?? `Download ${download.id}`}</Typography>}
                 secondary={
                     <Stack spacing={1} sx={{ mt: 1 }}>
                         <Box sx={{ width: '100%' }}>
                             {download.downloadStatus === DownloadStatus.IN_PROGRESS ? (
-                                <MultiSegmentProgressBar parts={download.parts} totalSize={download.totalSize} />
+                                <MultiSegmentProgressBar parts={download.parts ?? []} totalSize={download.totalSize} />
                             ) : (
                                 <LinearProgress
                                     variant="determinate"
@@ -111,6 +111,8 @@ const DownloadListItem: React.FC<DownloadListItemProps> = ({ download, onToggle
                         >
                             Status: {download.downloadStatus}
                             {download.errorMessage && ` - Error: ${download.errorMessage}`}
+                            {download.extractedPath && ` - Extracted to ${download.extractedPath}`}
+                            {download.extractError && ` - ${download.extractError}`}
                         </Typography>
                     </Stack>
                 }
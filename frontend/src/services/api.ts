@@ -1,32 +1,83 @@
 import axios from 'axios';
-import { Download } from '../types/download';
+import { BatchProgress, BatchSubmission, Download, DownloadListParams, DownloadPage, DownloadPart, ProgressDelta } from '../types/download';
 
 const API_BASE_URL = 'http://localhost:8089/api';
 
 export const api = {
-    startDownload: async (url: string, fileName?: string, threadCount?: number): Promise<Download> => {
+    startDownload: async (url: string, fileName?: string, threadCount?: number, mirrors?: string[], extract?: boolean): Promise<Download> => {
         const params = new URLSearchParams();
         params.append('url', url);
+        mirrors?.forEach((mirror) => params.append('mirror', mirror));
         if (fileName) {
             params.append('fileName', fileName);
         }
         if (threadCount) {
             params.append('threadCount', threadCount.toString());
         }
+        if (extract) {
+            params.append('extract', 'true');
+        }
         const response = await axios.post(`${API_BASE_URL}/downloads?${params.toString()}`);
         return response.data;
     },
 
+    // Manifest of JSON lines or "<url> [fileName] [checksum] [priority] [mirror URLs]" lines, probed in the background
+    submitBatch: async (manifest: string, name?: string): Promise<BatchSubmission> => {
+        const query = name ? `?name=${encodeURIComponent(name)}` : '';
+        const response = await axios.post(`${API_BASE_URL}/batches${query}`, manifest, {
+            headers: { 'Content-Type': 'text/plain' },
+            validateStatus: (status) => status === 200 || status === 400
+        });
+        return response.data;
+    },
+
+    getBatch: async (id: number): Promise<BatchProgress> => {
+        const response = await axios.get(`${API_BASE_URL}/batches/${id}`);
+        return response.data;
+    },
+
     getAllDownloads: async (): Promise<Download[]> => {
         const response = await axios.get(`${API_BASE_URL}/downloads`);
         return response.data;
     },
 
+    // Keyset paginated listing, pass the returned nextCursor as cursor for the next page
+    listDownloads: async (query: DownloadListParams = {}): Promise<DownloadPage> => {
+        const params = new URLSearchParams();
+        Object.entries(query).forEach(([key, value]) => {
+            if (value !== undefined && value !== null) {
+                params.append(key, Array.isArray(value) ? value.join(',') : String(value));
+            }
+        });
+        const response = await axios.get(`${API_BASE_URL}/downloads/page?${params.toString()}`);
+        return response.data;
+    },
+
+    getDownloadParts: async (id: number): Promise<DownloadPart[]> => {
+        const response = await axios.get(`${API_BASE_URL}/downloads/${id}/parts`);
+        return response.data;
+    },
+
+    // Opens the server-sent progress stream, returns a function that closes it
+    subscribeToProgress: (onDeltas: (deltas: ProgressDelta[]) => void, intervalMs?: number): (() => void) => {
+        const query = intervalMs ? `?intervalMs=${intervalMs}` : '';
+        const source = new EventSource(`${API_BASE_URL}/downloads/stream${query}`);
+        source.addEventListener('progress', (event) => {
+            onDeltas(JSON.parse((event as MessageEvent).data));
+        });
+        return () => source.close();
+    },
+
     getDownload: async (id: number): Promise<Download> => {
         const response = await axios.get(`${API_BASE_URL}/downloads/${id}`);
         return response.data;
     },
 
+    // 0 removes the cap, applies immediately to a running download
+    setBandwidthLimit: async (id: number, maxBytesPerSecond: number): Promise<void> => {
+        await axios.put(`${API_BASE_URL}/downloads/${id}/bandwidth?maxBytesPerSecond=${maxBytesPerSecond}`);
+    },
+
     pauseDownload: async (id: number): Promise<void> => {
         await axios.post(`${API_BASE_URL}/downloads/${id}/pause`);
     },
@@ -35,17 +86,13 @@ export const api = {
         await axios.post(`${API_BASE_URL}/downloads/${id}/resume`);
     },
 
+    // Lets the browser stream the file to disk (and resume it with ranges) instead of buffering a blob
     downloadFile: async (id: number, fileName: string): Promise<void> => {
-        const response = await axios.get(`${API_BASE_URL}/downloads/${id}/file`, {
-            responseType: 'blob'
-        });
-        const url = window.URL.createObjectURL(new Blob([response.data]));
         const link = document.createElement('a');
-        link.href = url;
+        link.href = `${API_BASE_URL}/downloads/${id}/file`;
         link.setAttribute('download', fileName);
         document.body.appendChild(link);
         link.click();
         link.remove();
-        window.URL.revokeObjectURL(url);
     }
 }; 
\ No newline at end of file
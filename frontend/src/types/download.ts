@@ -11,21 +11,124 @@ export interface DownloadPart {
     startByte: number;
     endByte: number;
     downloadedBytes: number;
+    attempts: number;
+    lastError: string | null;
+    digest: string | null;
 }
 
 export interface Download {
     id: number;
     url: string;
-    fileName: string;
+    // Other URLs of the same file the download fetches segments from
+    mirrors: string[];
+    // Null until a batch entry has been probed
+    fileName: string | null;
+    host: string | null;
     status: string;
     totalSize: number;
     downloadedSize: number;
     progress: number;
     threadCount: number;
+    // Thread count steered from measured throughput
+    adaptive: boolean;
+    priority: number;
+    maxBytesPerSecond: number;
+    splitCount: number;
     startTime: string;
     completionTime: string | null;
     filePath: string;
+    writeEngine: string | null;
+    etag: string | null;
+    lastModified: string | null;
+    checksumAlgorithm: string | null;
+    expectedChecksum: string | null;
+    checksum: string | null;
+    fromCache: boolean;
+    batchId: number | null;
+    // Archive unpacked while it downloads: where it went, or why it could not be
+    extract: boolean;
+    extractedPath: string | null;
+    extractError: string | null;
     errorMessage: string | null;
     downloadStatus: DownloadStatus;
     parts: DownloadPart[];
-} 
\ No newline at end of file
+} 
+export interface PartDelta {
+    id: number;
+    startByte: number;
+    endByte: number;
+    downloadedBytes: number;
+}
+
+export interface ProgressDelta {
+    id: number;
+    status: DownloadStatus;
+    totalSize: number;
+    downloadedSize: number;
+    progress: number;
+    bytesPerSecond: number;
+    parts: PartDelta[];
+    // Only on status changes
+    fileName?: string;
+    host?: string;
+    errorMessage?: string;
+    extractedPath?: string;
+    extractError?: string;
+}
+
+export interface DownloadSummary {
+    id: number;
+    // Null until a batch entry has been probed
+    fileName: string | null;
+    host: string | null;
+    downloadStatus: DownloadStatus;
+    totalSize: number;
+    downloadedSize: number;
+    progress: number;
+    threadCount: number;
+    priority: number;
+    startTime: string | null;
+    completionTime: string | null;
+    // Left out while empty
+    errorMessage?: string | null;
+    extractedPath?: string | null;
+    extractError?: string | null;
+    parts?: DownloadPart[];
+}
+
+export interface DownloadPage {
+    items: DownloadSummary[];
+    nextCursor: string | null;
+}
+
+export interface DownloadListParams {
+    status?: DownloadStatus[];
+    from?: string;
+    to?: string;
+    host?: string;
+    batchId?: number;
+    sort?: 'id' | 'startTime' | 'totalSize';
+    direction?: 'asc' | 'desc';
+    cursor?: string;
+    limit?: number;
+    includeParts?: boolean;
+}
+
+export interface BatchSubmission {
+    batchId: number | null;
+    accepted: number;
+    rejected: number;
+    errors: string[];
+}
+
+export interface BatchProgress {
+    id: number;
+    name: string | null;
+    createdAt: string;
+    entries: number;
+    statusCounts: Partial<Record<DownloadStatus, number>>;
+    awaitingProbe: number;
+    totalSize: number;
+    downloadedSize: number;
+    progress: number;
+}